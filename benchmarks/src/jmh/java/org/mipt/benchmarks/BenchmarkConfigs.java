@@ -0,0 +1,62 @@
+package org.mipt.benchmarks;
+
+import com.badlogic.gdx.math.Vector2;
+import org.mipt.MoleculeInitializer;
+import org.mipt.Physics;
+import org.mipt.dto.MoleculeData;
+import org.mipt.dto.SimulationSettings;
+import org.mipt.dto.VesselData;
+import org.mipt.entity.SimulationConfig;
+
+/** Конфиги для замеров: газ из simulation.json в квадратном сосуде под заданную плотность. */
+final class BenchmarkConfigs {
+  static final float DIAMETER = 2.6e-10f;
+  static final float TIME_STEP = 1e-10f;
+
+  private BenchmarkConfigs() {}
+
+  /**
+   * @param packing доля площади сосуда, занятая молекулами (в simulation.json около 0.02)
+   */
+  static SimulationConfig create(int numberOfMolecules, double packing, float cellOccupancy) {
+    return create(numberOfMolecules, packing, cellOccupancy, TIME_STEP, 0, 0);
+  }
+
+  /**
+   * @param verletSkin толщина оболочки списков Верле в диаметрах, 0 — без списков
+   * @param reorderStride через сколько шагов переставлять молекулы по кривой, 0 — никогда
+   */
+  static SimulationConfig create(
+      int numberOfMolecules,
+      double packing,
+      float cellOccupancy,
+      float timeStep,
+      float verletSkin,
+      int reorderStride) {
+    return create(
+        numberOfMolecules, packing, cellOccupancy, timeStep, verletSkin, reorderStride, "heap");
+  }
+
+  /** @param storage хранилище молекул: {@code heap} или {@code direct} */
+  static SimulationConfig create(
+      int numberOfMolecules,
+      double packing,
+      float cellOccupancy,
+      float timeStep,
+      float verletSkin,
+      int reorderStride,
+      String storage) {
+    double moleculeArea = Math.PI * DIAMETER * DIAMETER / 4;
+    float side = (float) Math.sqrt(numberOfMolecules * moleculeArea / packing);
+
+    SimulationConfig config = new SimulationConfig();
+    config.vessel = new VesselData(side, side, new Vector2(0, 0), 10);
+    config.molecule = new MoleculeData(6.646e-27f, 1, 3, DIAMETER, 0);
+    config.simulation =
+        new SimulationSettings(
+            numberOfMolecules, timeStep, 10, 100, 1000, 1e9, 5, 42, 0, "timestep", cellOccupancy, 1, 0,
+            verletSkin, reorderStride, storage, 0, 0, MoleculeInitializer.RANDOM, 0, 0, 0,
+            Physics.WALLS);
+    return config;
+  }
+}
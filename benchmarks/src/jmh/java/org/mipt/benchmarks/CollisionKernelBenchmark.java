@@ -0,0 +1,79 @@
+package org.mipt.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.mipt.CollisionKernel;
+import org.mipt.dto.MoleculeData;
+import org.mipt.entity.Particles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Пропускная способность узкой фазы в парах в секунду: старая реализация на {@code Vector2}
+ * против {@link CollisionKernel}. Пары расставлены так, что примерно половина из них касается.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CollisionKernelBenchmark {
+  private static final int PAIRS = 4096;
+  private static final float DIAMETER = 2.6e-10f;
+
+  @Param({"legacy", "scalar"})
+  public String kernel;
+
+  /** Половина длины связи в диаметрах; 0 соответствует одноатомному газу из конфига. */
+  @Param({"0", "0.5"})
+  public float halfBoundLength;
+
+  private Particles particles;
+
+  @Setup
+  public void setUp() {
+    MoleculeData data =
+        new MoleculeData(6.646e-27f, 1, 3, DIAMETER, halfBoundLength * DIAMETER);
+    particles = Particles.heap(2 * PAIRS, data);
+    Random random = new Random(42);
+    float reach = DIAMETER * (1 + 2 * halfBoundLength);
+    for (int i = 0; i < PAIRS; i++) {
+      float x = random.nextFloat() * 1e-7f;
+      float y = random.nextFloat() * 1e-7f;
+      float angle = random.nextFloat() * 2 * (float) Math.PI;
+      float distance = reach * (0.5f + random.nextFloat());
+      particles.setPosition(2 * i, x, y);
+      particles.setPosition(
+          2 * i + 1, x + distance * (float) Math.cos(angle), y + distance * (float) Math.sin(angle));
+      for (int j = 2 * i; j <= 2 * i + 1; j++) {
+        float bond = random.nextFloat() * 2 * (float) Math.PI;
+        float speed = 300 * random.nextFloat();
+        particles.setDirection(j, (float) Math.cos(bond), (float) Math.sin(bond));
+        particles.setVelocity(j, speed * (float) Math.cos(bond), speed * (float) Math.sin(bond));
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PAIRS)
+  public void pairs(Blackhole blackhole) {
+    boolean legacy = kernel.equals("legacy");
+    for (int i = 0; i < PAIRS; i++) {
+      int a = 2 * i;
+      int b = 2 * i + 1;
+      if (legacy) {
+        if (LegacyCollisionKernel.isColliding(particles, a, b)) {
+          LegacyCollisionKernel.resolveCollision(particles, a, b);
+        }
+      } else if (CollisionKernel.isColliding(particles, a, b)) {
+        blackhole.consume(CollisionKernel.resolveCollision(particles, a, b));
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.mipt.benchmarks;
+
+import com.badlogic.gdx.math.Intersector;
+import com.badlogic.gdx.math.Vector2;
+import org.mipt.entity.Particles;
+
+/** Прежняя реализация узкой фазы на {@link Vector2}, оставлена как точка отсчёта для замеров. */
+final class LegacyCollisionKernel {
+  private LegacyCollisionKernel() {}
+
+  static boolean isColliding(Particles particles, int first, int second) {
+    Vector2 firstPosition = new Vector2(particles.getX(first), particles.getY(first));
+    Vector2 firstDirection = new Vector2(particles.getDirX(first), particles.getDirY(first));
+    Vector2 secondPosition = new Vector2(particles.getX(second), particles.getY(second));
+    Vector2 secondDirection = new Vector2(particles.getDirX(second), particles.getDirY(second));
+
+    Vector2 a1 =
+        firstPosition.cpy().sub(firstDirection.cpy().scl(particles.getHalfBoundLength(first)));
+    Vector2 a2 =
+        firstPosition.cpy().add(firstDirection.cpy().scl(particles.getHalfBoundLength(first)));
+    Vector2 b1 =
+        secondPosition.cpy().sub(secondDirection.cpy().scl(particles.getHalfBoundLength(second)));
+    Vector2 b2 =
+        secondPosition.cpy().add(secondDirection.cpy().scl(particles.getHalfBoundLength(second)));
+
+    float dist = distanceBetweenSegments(a1, a2, b1, b2);
+    return dist < ((particles.getDiameter(first) + particles.getDiameter(second)) / 2);
+  }
+
+  private static float distanceBetweenSegments(Vector2 a1, Vector2 a2, Vector2 b1, Vector2 b2) {
+    if (Intersector.intersectSegments(a1, a2, b1, b2, null)) {
+      return 0;
+    }
+
+    float d1 = Intersector.distanceSegmentPoint(a1, a2, b1);
+    float d2 = Intersector.distanceSegmentPoint(a1, a2, b2);
+    float d3 = Intersector.distanceSegmentPoint(b1, b2, a1);
+    float d4 = Intersector.distanceSegmentPoint(b1, b2, a2);
+
+    return Math.min(Math.min(d1, d2), Math.min(d3, d4));
+  }
+
+  static void resolveCollision(Particles particles, int first, int second) {
+    Vector2 v1 = new Vector2(particles.getVx(first), particles.getVy(first));
+    Vector2 v2 = new Vector2(particles.getVx(second), particles.getVy(second));
+
+    Vector2 center1 = new Vector2(particles.getX(first), particles.getY(first));
+    Vector2 center2 = new Vector2(particles.getX(second), particles.getY(second));
+
+    Vector2 normal = center2.cpy().sub(center1).nor();
+
+    Vector2 relativeVelocity = v2.cpy().sub(v1);
+    float velocityAlongNormal = relativeVelocity.dot(normal);
+
+    if (velocityAlongNormal > 0) {
+      return;
+    }
+
+    float m1 = particles.getMass(first);
+    float m2 = particles.getMass(second);
+
+    float impulseScalar = -2 * velocityAlongNormal / (1 / m1 + 1 / m2);
+    Vector2 impulse = normal.cpy().scl(impulseScalar);
+
+    Vector2 v1New = v1.cpy().sub(impulse.cpy().scl(1 / m1));
+    Vector2 v2New = v2.cpy().add(impulse.cpy().scl(1 / m2));
+
+    particles.setVelocity(first, v1New.x, v1New.y);
+    particles.setVelocity(second, v2New.x, v2New.y);
+  }
+}
@@ -0,0 +1,79 @@
+package org.mipt.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.mipt.Physics;
+import org.mipt.entity.SimulationConfig;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Списки Верле против прохода по клеткам: движение, столкновения и стенки за шаг. Выигрыш зависит
+ * от того, какую долю диаметра молекула проходит за шаг, поэтому шаг по времени — параметр; при
+ * шаге из simulation.json (1e-10 с) молекула пролетает десятки диаметров и списки перестраиваются
+ * каждый шаг.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NeighborListBenchmark {
+  @Param({"100000"})
+  public int numberOfMolecules;
+
+  @Param({"0.2"})
+  public double packing;
+
+  @Param({"1e-13", "1e-12", "1e-10"})
+  public float timeStep;
+
+  /** Толщина оболочки в диаметрах; 0 — проход по клеткам. */
+  @Param({"0", "0.3", "1"})
+  public float verletSkin;
+
+  private Physics physics;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Rebuilds {
+    public long rebuilds;
+    public long steps;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      rebuilds = 0;
+      steps = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SimulationConfig config =
+        BenchmarkConfigs.create(numberOfMolecules, packing, 1, timeStep, verletSkin, 0);
+    physics = new Physics(config);
+    physics.fillGrid();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    physics.dispose();
+  }
+
+  @Benchmark
+  public void step(PhysicsBenchmark.MoleculeSteps counter, Rebuilds rebuilds) {
+    long before = physics.getNeighborListBuilds();
+    physics.applyPhysics(timeStep);
+    physics.collisions();
+    physics.handleCollisionsWithWalls();
+    counter.moleculeSteps += numberOfMolecules;
+    rebuilds.rebuilds += physics.getNeighborListBuilds() - before;
+    rebuilds.steps++;
+  }
+}
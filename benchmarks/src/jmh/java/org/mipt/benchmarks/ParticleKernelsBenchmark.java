@@ -0,0 +1,114 @@
+package org.mipt.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.mipt.dto.MoleculeData;
+import org.mipt.entity.ParticleKernels;
+import org.mipt.entity.Particles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Скалярные и векторные {@link ParticleKernels} на одних и тех же данных, в молекулах в секунду.
+ * Молекулы разбросаны по единичному квадрату, стенки отступают от его краёв на 1%, так что за
+ * стенками оказывается около 4% молекул.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParticleKernelsBenchmark {
+  @Param({"1000000", "10000000"})
+  public int numberOfMolecules;
+
+  @Param({"scalar", "vector"})
+  public String kernels;
+
+  /** Хранилище вне кучи считает своими скалярными циклами и ядра не использует. */
+  @Param({"heap", "direct"})
+  public String storage;
+
+  private Particles particles;
+  private final double[] wallResult = new double[3];
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    particles =
+        Particles.create(
+            storage, numberOfMolecules, new MoleculeData(6.646e-27f, 1, 3, 2.6e-10f, 0));
+    particles.setKernels(ParticleKernels.byName(kernels));
+    Random random = new Random(42);
+    for (int i = 0; i < numberOfMolecules; i++) {
+      particles.setPosition(i, random.nextFloat(), random.nextFloat());
+      particles.setVelocity(i, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    particles.close();
+  }
+
+  @Benchmark
+  public void integrate(PhysicsBenchmark.MoleculeSteps counter) {
+    particles.integrate(1e-3f);
+    particles.integrate(-1e-3f);
+    counter.moleculeSteps += 2L * numberOfMolecules;
+  }
+
+  @Benchmark
+  public void scaleVelocities(PhysicsBenchmark.MoleculeSteps counter) {
+    particles.scaleVelocities(2);
+    particles.scaleVelocities(0.5f);
+    counter.moleculeSteps += 2L * numberOfMolecules;
+  }
+
+  @Benchmark
+  public double totalKineticEnergy(PhysicsBenchmark.MoleculeSteps counter) {
+    counter.moleculeSteps += numberOfMolecules;
+    return particles.totalKineticEnergy();
+  }
+
+  /** Отражению каждый раз нужны молекулы за стенками, поэтому перед вызовом состояние восстанавливается. */
+  @State(Scope.Thread)
+  public static class Walls {
+    private Particles original;
+
+    @Setup(Level.Invocation)
+    public void restore(ParticleKernelsBenchmark benchmark) {
+      if (original == null) {
+        original =
+            Particles.create(
+                benchmark.storage,
+                benchmark.numberOfMolecules,
+                benchmark.particles.getSpeciesTable());
+        original.copyFrom(benchmark.particles);
+      }
+      benchmark.particles.copyFrom(original);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      if (original != null) {
+        original.close();
+      }
+    }
+  }
+
+  @Benchmark
+  public double reflectWalls(Walls walls, PhysicsBenchmark.MoleculeSteps counter) {
+    wallResult[0] = 0;
+    wallResult[1] = 0;
+    wallResult[2] = 0;
+    particles.reflectWalls(0.01f, 0.99f, 0.01f, 0.99f, 0.01f, wallResult);
+    counter.moleculeSteps += numberOfMolecules;
+    return wallResult[0];
+  }
+}
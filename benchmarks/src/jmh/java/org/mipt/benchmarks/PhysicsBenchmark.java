@@ -0,0 +1,149 @@
+package org.mipt.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.mipt.Physics;
+import org.mipt.SimulationDriver;
+import org.mipt.entity.SimulationConfig;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Горячие участки шага {@link Physics}. Кроме времени на вызов JMH выводит счётчик {@code
+ * moleculeSteps} в молекуло-шагах в секунду; 1e9 / moleculeSteps даёт нс на молекуло-шаг.
+ * {@link #calcTemp} и {@link #calculatePressure} не зависят от числа молекул, поэтому идут в нс на
+ * вызов и без счётчика. Скорость выделения памяти показывает профилировщик {@code gc}, он включён
+ * в build.gradle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PhysicsBenchmark {
+  @Param({"10000", "100000", "1000000", "10000000"})
+  public int numberOfMolecules;
+
+  /** Доля площади под молекулами. */
+  @Param({"0.02", "0.2"})
+  public double packing;
+
+  /** Среднее число молекул на клетку; заменяет прежний clusterSize. */
+  @Param({"1", "4"})
+  public float cellOccupancy;
+
+  /** Хранилище молекул и индексов сетки: в куче или вне её. */
+  @Param({"heap", "direct"})
+  public String storage;
+
+  private SimulationConfig config;
+  private Physics physics;
+  private SimulationDriver driver;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class MoleculeSteps {
+    public long moleculeSteps;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      moleculeSteps = 0;
+    }
+  }
+
+  /**
+   * Перед каждым вызовом {@link #calculatePressure} набирает импульс стенок за шаг: давление
+   * обнуляет накопленное время, и без этого все вызовы после первого выходили бы по нулевому
+   * времени.
+   */
+  @State(Scope.Thread)
+  public static class WallImpulse {
+    @Setup(Level.Trial)
+    public void prime(PhysicsBenchmark benchmark) {
+      // длительность последнего шага задаёт время набора импульса; молекулы остаются на месте
+      benchmark.physics.applyPhysics(-BenchmarkConfigs.TIME_STEP);
+      benchmark.physics.applyPhysics(BenchmarkConfigs.TIME_STEP);
+    }
+
+    @Setup(Level.Invocation)
+    public void hitWalls(PhysicsBenchmark benchmark) {
+      benchmark.physics.handleCollisionsWithWalls();
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    config =
+        BenchmarkConfigs.create(
+            numberOfMolecules,
+            packing,
+            cellOccupancy,
+            BenchmarkConfigs.TIME_STEP,
+            0,
+            0,
+            storage);
+    physics = new Physics(config);
+    physics.fillGrid();
+    driver = new SimulationDriver(config, physics);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    physics.dispose();
+  }
+
+  @Benchmark
+  public void applyPhysics(MoleculeSteps counter) {
+    physics.applyPhysics(BenchmarkConfigs.TIME_STEP);
+    physics.applyPhysics(-BenchmarkConfigs.TIME_STEP);
+    counter.moleculeSteps += 2L * numberOfMolecules;
+  }
+
+  @Benchmark
+  public void fillGrid(MoleculeSteps counter) {
+    physics.fillGrid();
+    counter.moleculeSteps += numberOfMolecules;
+  }
+
+  /** Включает перестройку сетки ({@code updateGrid}). */
+  @Benchmark
+  public void collisions(MoleculeSteps counter) {
+    physics.collisions();
+    counter.moleculeSteps += numberOfMolecules;
+  }
+
+  @Benchmark
+  public void handleCollisionsWithWalls(MoleculeSteps counter) {
+    physics.handleCollisionsWithWalls();
+    counter.moleculeSteps += numberOfMolecules;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public double calculatePressure(WallImpulse impulse) {
+    return physics.calculatePressure();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public double calcTemp() {
+    return physics.calcTemp();
+  }
+
+  /** Полный шаг драйвера: стенка, интегрирование, наблюдаемые, нагрев, столкновения. */
+  @Benchmark
+  public void step(MoleculeSteps counter, Blackhole blackhole) {
+    driver.step();
+    counter.moleculeSteps += numberOfMolecules;
+    blackhole.consume(driver.getPressure());
+  }
+}
@@ -0,0 +1,57 @@
+package org.mipt.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.mipt.Physics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Шаг {@link Physics} с перестановкой молекул по кривой Гильберта раз в {@code reorderStride}
+ * шагов; 0 — без перестановок, молекулы остаются в случайном начальном порядке. Цена перестановок
+ * размазана по шагам, так что лучший {@code reorderStride} — тот, где выше moleculeSteps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReorderBenchmark {
+  @Param({"100000", "1000000"})
+  public int numberOfMolecules;
+
+  @Param({"0.02", "0.2"})
+  public double packing;
+
+  @Param({"0", "1", "10", "100", "1000"})
+  public int reorderStride;
+
+  private Physics physics;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    physics =
+        new Physics(
+            BenchmarkConfigs.create(
+                numberOfMolecules, packing, 1, BenchmarkConfigs.TIME_STEP, 0, reorderStride));
+    physics.fillGrid();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    physics.dispose();
+  }
+
+  @Benchmark
+  public void step(PhysicsBenchmark.MoleculeSteps counter) {
+    physics.applyPhysics(BenchmarkConfigs.TIME_STEP);
+    physics.collisions();
+    physics.handleCollisionsWithWalls();
+    counter.moleculeSteps += numberOfMolecules;
+  }
+}
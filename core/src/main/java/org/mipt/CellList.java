@@ -0,0 +1,484 @@
+package org.mipt;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.mipt.entity.DirectBuffers;
+import org.mipt.entity.Particles;
+
+/**
+ * Список клеток в формате CSR: номера молекул отсортированы по клеткам подсчётом, клетка {@code c}
+ * занимает отрезок {@code [cellStart[c], cellStart[c] + cellCount[c])} массива {@code sorted}.
+ * Перестраивается целиком за O(N + клеток), переполнения клеток не бывает. Если молекул стало
+ * больше, чем при создании, массивы по молекулам расширяются при перестройке.
+ *
+ * <p>Число столбцов следует за шириной сосуда ({@link #resize}): ребро клетки постоянно, столбцы
+ * добавляются или убираются справа, клетка {@code (row, col)} остаётся на месте, меняется лишь
+ * её номер {@code row * columns + col}. Массивы по клеткам отводятся с запасом по столбцам и
+ * растут в полтора раза, поэтому смена ширины стоит O(1), а в среднем и с ростом — O(1) на
+ * столбец; при сужении ничего не освобождается.
+ *
+ * <p>Индексы лежат в массивах кучи или, для хранилища молекул вне кучи, в буферах вне её (см.
+ * {@link #create}); такие буферы освобождает {@link #close}.
+ */
+public abstract class CellList implements AutoCloseable {
+  // клетка переполнена, если в ней больше молекул, чем столько средних
+  private static final int CROWDED_FACTOR = 4;
+
+  private final float cellEdge;
+  private final float originX;
+  private final float originY;
+  private int columns;
+  private final int rows;
+  // под сколько столбцов отведены массивы по клеткам
+  private int columnCapacity;
+  // число столбцов при последней перестройке: по нему читаются прежние клетки молекул
+  private int builtColumns;
+  private int migrations;
+  // обход кривой Гильберта по сетке на columnCapacity столбцов и его часть для columns столбцов
+  private long[] curve;
+  private int[] curveOrder;
+  private int crowdedCells;
+
+  private CellList(float originX, float originY, float width, float height, float cellEdge) {
+    this.cellEdge = cellEdge;
+    this.originX = originX;
+    this.originY = originY;
+    this.columns = Math.max(1, (int) (width / cellEdge));
+    this.rows = Math.max(1, (int) (height / cellEdge));
+    this.columnCapacity = columns;
+    this.builtColumns = columns;
+  }
+
+  /** Сетка с индексами в куче. */
+  public static CellList create(
+      float originX, float originY, float width, float height, float cellEdge, int size) {
+    return new HeapIndex(originX, originY, width, height, cellEdge, size);
+  }
+
+  /** Сетка с индексами вне кучи, если {@code direct}, иначе как {@link #create}. */
+  public static CellList create(
+      boolean direct,
+      float originX,
+      float originY,
+      float width,
+      float height,
+      float cellEdge,
+      int size) {
+    return direct
+        ? new DirectIndex(originX, originY, width, height, cellEdge, size)
+        : create(originX, originY, width, height, cellEdge, size);
+  }
+
+  /**
+   * Ребро клетки: не меньше радиуса взаимодействия (диаметр плюс длина связи), а при разреженном
+   * газе крупнее, чтобы в клетке в среднем было {@code occupancy} молекул (по умолчанию одна).
+   */
+  public static float cellEdge(float interactionRange, double area, int size, float occupancy) {
+    if (occupancy <= 0) {
+      occupancy = 1;
+    }
+    return (float) Math.max(interactionRange, Math.sqrt(area * occupancy / Math.max(size, 1)));
+  }
+
+  /**
+   * Подгоняет число столбцов под ширину {@code width} от начала сетки. Новые клетки пусты до
+   * следующей {@link #rebuild}. Возвращает, изменилось ли число столбцов.
+   */
+  public boolean resize(float width) {
+    int columns = Math.max(1, (int) (width / cellEdge));
+    if (columns == this.columns) {
+      return false;
+    }
+    if (columns > columnCapacity) {
+      reserveColumns(Math.max(columns, columnCapacity + columnCapacity / 2));
+    }
+    this.columns = columns;
+    return true;
+  }
+
+  /** Отводит массивы по клеткам под ширину {@code width}, чтобы расширение до неё не выделяло память. */
+  public void reserveWidth(float width) {
+    int columns = Math.max(1, (int) (width / cellEdge));
+    if (columns > columnCapacity) {
+      reserveColumns(columns);
+    }
+  }
+
+  private void reserveColumns(int capacity) {
+    growCells(capacity * rows);
+    columnCapacity = capacity;
+    curve = null;
+  }
+
+  public void rebuild(Particles particles) {
+    int size = particles.size();
+    int cellCount = columns * rows;
+    clearCounts(cellCount);
+    reserve(size);
+    int migrations = 0;
+    int previousColumns = builtColumns;
+    for (int i = 0; i < size; i++) {
+      int cell = cellOf(particles.getX(i), particles.getY(i));
+      int previous = cellOfMolecule(i);
+      if (previousColumns != columns) {
+        // прежний номер той же клетки в новой нумерации
+        previous =
+            previous / previousColumns * columns
+                + Math.min(previous % previousColumns, columns - 1);
+      }
+      if (cell != previous) {
+        migrations++;
+      }
+      setCellOfMolecule(i, cell);
+      incrementCount(cell);
+    }
+    builtColumns = columns;
+
+    int end = 0;
+    int crowdedLimit = CROWDED_FACTOR * Math.max(1, (size + cellCount - 1) / cellCount);
+    int crowded = 0;
+    for (int c = 0; c < cellCount; c++) {
+      int count = cellCount(c);
+      if (count > crowdedLimit) {
+        crowded++;
+      }
+      end += count;
+      setCellStart(c, end);
+    }
+    this.migrations = migrations;
+    this.crowdedCells = crowded;
+    // идём с конца, чтобы внутри клетки сохранялся порядок номеров
+    for (int i = size - 1; i >= 0; i--) {
+      int cell = cellOfMolecule(i);
+      int slot = cellStart(cell) - 1;
+      setCellStart(cell, slot);
+      setMolecule(slot, i);
+    }
+  }
+
+  public int cellOf(float x, float y) {
+    int col = (int) ((x - originX) / cellEdge);
+    int row = (int) ((y - originY) / cellEdge);
+
+    if (col < 0) {
+      col = 0;
+    } else if (col >= columns) {
+      col = columns - 1;
+    }
+    if (row < 0) {
+      row = 0;
+    } else if (row >= rows) {
+      row = rows - 1;
+    }
+    return row * columns + col;
+  }
+
+  /**
+   * Номера клеток в порядке обхода кривой Гильберта: соседние в этом порядке клетки соседствуют и
+   * в пространстве, а квадрат из {@code 4^k} клеток проходится целиком, прежде чем кривая уйдёт
+   * дальше. Сетка дополняется до квадрата со стороной степени двойки, лишние клетки пропускаются.
+   *
+   * <p>Кривая строится один раз на все отведённые столбцы; при смене ширины из неё за один проход
+   * выбираются живые клетки. Массив общий до следующей смены ширины, менять его нельзя.
+   */
+  public int[] hilbertOrder() {
+    if (curve == null) {
+      int side = Integer.highestOneBit(Math.max(columnCapacity, rows) - 1) << 1;
+      side = Math.max(side, 1);
+      curve = new long[columnCapacity * rows];
+      for (int row = 0; row < rows; row++) {
+        for (int col = 0; col < columnCapacity; col++) {
+          int cell = row * columnCapacity + col;
+          curve[cell] = (hilbertIndex(side, col, row) << 32) | cell;
+        }
+      }
+      Arrays.sort(curve);
+      curveOrder = null;
+    }
+    if (curveOrder == null || curveOrder.length != columns * rows) {
+      int[] order = new int[columns * rows];
+      int n = 0;
+      for (long key : curve) {
+        // номер клетки в сетке на columnCapacity столбцов переводим в живую нумерацию
+        int cell = (int) key;
+        int col = cell % columnCapacity;
+        if (col < columns) {
+          order[n++] = cell / columnCapacity * columns + col;
+        }
+      }
+      curveOrder = order;
+    }
+    return curveOrder;
+  }
+
+  /** Номер точки {@code (x, y)} на кривой Гильберта, заполняющей квадрат {@code side x side}. */
+  static long hilbertIndex(int side, int x, int y) {
+    long index = 0;
+    for (int s = side / 2; s > 0; s /= 2) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      index += (long) s * s * ((3 * rx) ^ ry);
+      // поворот четверти, чтобы кривая внутри неё шла в нужную сторону
+      if (ry == 0) {
+        if (rx == 1) {
+          x = side - 1 - x;
+          y = side - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return index;
+  }
+
+  public float getOriginX() {
+    return originX;
+  }
+
+  public float getOriginY() {
+    return originY;
+  }
+
+  public int getColumns() {
+    return columns;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public float getCellEdge() {
+    return cellEdge;
+  }
+
+  /**
+   * Сколько молекул при последней перестройке оказались не в той клетке, что при предыдущей. Имеет
+   * смысл, только если номера молекул между перестройками не менялись.
+   */
+  public int getMigrations() {
+    return migrations;
+  }
+
+  /**
+   * Сколько клеток при последней перестройке вмещали больше {@value #CROWDED_FACTOR} средних
+   * заполнений. Молекулы в них не теряются, но проход по парам в такой клетке квадратичен.
+   */
+  public int getCrowdedCells() {
+    return crowdedCells;
+  }
+
+  public abstract int cellStart(int cell);
+
+  public abstract int cellCount(int cell);
+
+  public abstract int molecule(int slot);
+
+  public abstract int cellOfMolecule(int molecule);
+
+  /** Обнуляет счётчики первых {@code cells} клеток перед перестройкой. */
+  abstract void clearCounts(int cells);
+
+  /** Расширяет массивы по клеткам под {@code cells} клеток. */
+  abstract void growCells(int cells);
+
+  /** Расширяет массивы по молекулам под {@code size} молекул. */
+  abstract void reserve(int size);
+
+  abstract void incrementCount(int cell);
+
+  abstract void setCellStart(int cell, int slot);
+
+  abstract void setMolecule(int slot, int molecule);
+
+  abstract void setCellOfMolecule(int molecule, int cell);
+
+  /** Освобождает буферы вне кучи; у сетки в куче ничего не делает. */
+  @Override
+  public void close() {}
+
+  private static final class HeapIndex extends CellList {
+    private int[] cellStart;
+    private int[] cellCount;
+    private int[] cellOf;
+    private int[] sorted;
+
+    HeapIndex(float originX, float originY, float width, float height, float cellEdge, int size) {
+      super(originX, originY, width, height, cellEdge);
+      this.cellStart = new int[getColumns() * getRows()];
+      this.cellCount = new int[getColumns() * getRows()];
+      this.cellOf = new int[size];
+      this.sorted = new int[size];
+    }
+
+    @Override
+    public int cellStart(int cell) {
+      return cellStart[cell];
+    }
+
+    @Override
+    public int cellCount(int cell) {
+      return cellCount[cell];
+    }
+
+    @Override
+    public int molecule(int slot) {
+      return sorted[slot];
+    }
+
+    @Override
+    public int cellOfMolecule(int molecule) {
+      return cellOf[molecule];
+    }
+
+    @Override
+    void clearCounts(int cells) {
+      Arrays.fill(cellCount, 0, cells, 0);
+    }
+
+    @Override
+    void growCells(int cells) {
+      cellStart = new int[cells];
+      cellCount = new int[cells];
+    }
+
+    @Override
+    void reserve(int size) {
+      if (size > sorted.length) {
+        int length = Math.max(size, sorted.length + sorted.length / 2);
+        cellOf = new int[length];
+        sorted = new int[length];
+      }
+    }
+
+    @Override
+    void incrementCount(int cell) {
+      cellCount[cell]++;
+    }
+
+    @Override
+    void setCellStart(int cell, int slot) {
+      cellStart[cell] = slot;
+    }
+
+    @Override
+    void setMolecule(int slot, int molecule) {
+      sorted[slot] = molecule;
+    }
+
+    @Override
+    void setCellOfMolecule(int molecule, int cell) {
+      cellOf[molecule] = cell;
+    }
+  }
+
+  /** Те же четыре массива в буферах вне кучи; исходные буферы хранятся для освобождения. */
+  private static final class DirectIndex extends CellList {
+    private ByteBuffer cellStartBlock;
+    private ByteBuffer cellCountBlock;
+    private IntBuffer cellStart;
+    private IntBuffer cellCount;
+    private ByteBuffer cellOfBlock;
+    private ByteBuffer sortedBlock;
+    private IntBuffer cellOf;
+    private IntBuffer sorted;
+
+    DirectIndex(float originX, float originY, float width, float height, float cellEdge, int size) {
+      super(originX, originY, width, height, cellEdge);
+      allocateCells(getColumns() * getRows());
+      allocateMolecules(size);
+    }
+
+    private void allocateCells(int cells) {
+      cellStartBlock = DirectBuffers.allocate((long) cells * Integer.BYTES);
+      cellCountBlock = DirectBuffers.allocate((long) cells * Integer.BYTES);
+      cellStart = cellStartBlock.asIntBuffer();
+      cellCount = cellCountBlock.asIntBuffer();
+    }
+
+    private void allocateMolecules(int length) {
+      cellOfBlock = DirectBuffers.allocate((long) length * Integer.BYTES);
+      sortedBlock = DirectBuffers.allocate((long) length * Integer.BYTES);
+      cellOf = cellOfBlock.asIntBuffer();
+      sorted = sortedBlock.asIntBuffer();
+    }
+
+    @Override
+    public int cellStart(int cell) {
+      return cellStart.get(cell);
+    }
+
+    @Override
+    public int cellCount(int cell) {
+      return cellCount.get(cell);
+    }
+
+    @Override
+    public int molecule(int slot) {
+      return sorted.get(slot);
+    }
+
+    @Override
+    public int cellOfMolecule(int molecule) {
+      return cellOf.get(molecule);
+    }
+
+    @Override
+    void clearCounts(int cells) {
+      for (int c = 0; c < cells; c++) {
+        cellCount.put(c, 0);
+      }
+    }
+
+    @Override
+    void growCells(int cells) {
+      DirectBuffers.free(cellStartBlock);
+      DirectBuffers.free(cellCountBlock);
+      allocateCells(cells);
+    }
+
+    @Override
+    void reserve(int size) {
+      if (size > sorted.capacity()) {
+        int length = Math.max(size, sorted.capacity() + sorted.capacity() / 2);
+        DirectBuffers.free(cellOfBlock);
+        DirectBuffers.free(sortedBlock);
+        allocateMolecules(length);
+      }
+    }
+
+    @Override
+    void incrementCount(int cell) {
+      cellCount.put(cell, cellCount.get(cell) + 1);
+    }
+
+    @Override
+    void setCellStart(int cell, int slot) {
+      cellStart.put(cell, slot);
+    }
+
+    @Override
+    void setMolecule(int slot, int molecule) {
+      sorted.put(slot, molecule);
+    }
+
+    @Override
+    void setCellOfMolecule(int molecule, int cell) {
+      cellOf.put(molecule, cell);
+    }
+
+    @Override
+    public void close() {
+      if (cellOf == null) {
+        return;
+      }
+      // после освобождения обращение должно падать в Java, а не читать чужую память
+      cellStart = cellCount = cellOf = sorted = null;
+      DirectBuffers.free(cellStartBlock);
+      DirectBuffers.free(cellCountBlock);
+      DirectBuffers.free(cellOfBlock);
+      DirectBuffers.free(sortedBlock);
+    }
+  }
+}
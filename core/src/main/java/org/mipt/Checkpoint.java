@@ -0,0 +1,273 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.mipt.entity.DirectParticles;
+import org.mipt.entity.Particles;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Контрольная точка: копия состояния движка и протокола фаз между шагами. Снимок делается на
+ * шагающем потоке копированием массивов, запись в файл может идти в другом потоке.
+ *
+ * <p>Файл (little-endian, версия 3): заголовок из {@link #HEADER_BYTES} байт, затем массивы x,
+ * y, vx, vy, dirX, dirY ({@code float}), виды и постоянные номера ({@code int}) по {@code n}
+ * элементов. Файлы версий 1 и 2 тоже читаются; в версии 1 нет номеров, они тогда совпадают с
+ * местами. Пишется через отображённый в память канал во временный файл, который затем атомарно
+ * переименовывается, так что прерванная запись не портит предыдущую точку. Длительность
+ * последнего шага и время набора импульса стенок лежат в бывших пустых полях заголовка; в старых
+ * файлах там нули, и вместо них берётся {@code timeStep} из конфига. С версии 3 слово флага
+ * сжатия несёт и выдержку: бит 0 — сжатие, бит 1 — идёт выдержка, с бита 2 — номер фазы, после
+ * которой она идёт; в версиях 1 и 2 там 0 или 1 и выдержки нет. Накопленные блоки выдержки не
+ * сохраняются, после чтения она начинается заново. С версии 3 заголовок длиннее на 16 байт: в нём
+ * кинетическая энергия в том виде, как её вёл движок, и число шагов с её пересчёта, так что
+ * продолжение совпадает с непрерывным счётом; у старых файлов энергия пересчитывается по молекулам.
+ *
+ * <p>Столбцы лежат в файле в том же порядке, что и в {@link DirectParticles}, поэтому при
+ * хранилище вне кучи точка версии 2 и новее не читается, а отображается: молекулы подгружаются с
+ * диска по мере обращения, куча не растёт. Снимок с таким хранилищем нужно закрыть
+ * ({@link #close}).
+ *
+ * <p>Генератор случайных чисел используется только при начальной расстановке, поэтому вместо его
+ * состояния хранится зерно из конфига.
+ */
+public final class Checkpoint implements AutoCloseable {
+  private static final int MAGIC = 0x4D434B50; // "MCKP"
+  private static final int VERSION = 3;
+  private static final int HEADER_BYTES = 112;
+  private static final int V2_HEADER_BYTES = 96;
+  private static final int BYTES_PER_MOLECULE = 6 * Float.BYTES + 2 * Integer.BYTES;
+  private static final int V1_BYTES_PER_MOLECULE = 6 * Float.BYTES + Integer.BYTES;
+
+  private final Particles particles;
+  private long seed;
+  private float width;
+  private float wallVelocity;
+  private double wallImpulse;
+  private double wallImpulseTime;
+  private long collisionCount;
+  private double kineticEnergy;
+  private int kineticEnergyAge;
+  private SimulationDriver.PhaseState phase;
+
+  private Checkpoint(Particles particles) {
+    this.particles = particles;
+  }
+
+  /** Пустой снимок под конфиг; его можно многократно заполнять через {@link #capture}. */
+  public static Checkpoint allocate(SimulationConfig config) {
+    return new Checkpoint(
+        Particles.create(
+            config.simulation.storage(), config.simulation.numberOfMolecules(), config.molecule));
+  }
+
+  /** Копирует текущее состояние драйвера; вызывается между шагами. */
+  public Checkpoint capture(SimulationDriver driver, SimulationConfig config) {
+    RestorableEngine engine = restorable(driver);
+    particles.copyFrom(engine.getParticles());
+    seed = config.simulation.seed();
+    width = engine.getWidth();
+    wallVelocity = engine.getWallVelocity();
+    wallImpulse = engine.getWallImpulse();
+    wallImpulseTime = engine.getWallImpulseTime();
+    collisionCount = engine.getCollisionCount();
+    kineticEnergy = engine.getKineticEnergy();
+    kineticEnergyAge = engine.getKineticEnergyAge();
+    phase = driver.getPhaseState();
+    return this;
+  }
+
+  public long getStep() {
+    return phase.step();
+  }
+
+  public void write(Path path) throws IOException {
+    int size = particles.size();
+    long length = HEADER_BYTES + (long) size * BYTES_PER_MOLECULE;
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Checkpoint of " + size + " molecules exceeds 2 GiB");
+    }
+
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            temp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putFloat(phase.timeStep());
+      buffer.putLong(seed);
+      buffer.putLong(phase.step());
+      buffer.putDouble(phase.time());
+      buffer.putInt(phase.expanding() ? 1 : 0);
+      buffer.putInt(
+          (phase.compressing() ? 1 : 0)
+              | (phase.holding() ? 2 : 0)
+              | phase.heldPhase().ordinal() << 2);
+      buffer.putDouble(phase.isobaricStartTemp());
+      buffer.putDouble(phase.isobaricStartArea());
+      buffer.putInt(phase.thermostatSteps());
+      buffer.putFloat(width);
+      buffer.putFloat(wallVelocity).putFloat((float) wallImpulseTime);
+      buffer.putDouble(wallImpulse);
+      buffer.putLong(collisionCount);
+      buffer.putDouble(kineticEnergy).putInt(kineticEnergyAge);
+      buffer.position(HEADER_BYTES);
+
+      for (int i = 0; i < size; i++) buffer.putFloat(particles.getX(i));
+      for (int i = 0; i < size; i++) buffer.putFloat(particles.getY(i));
+      for (int i = 0; i < size; i++) buffer.putFloat(particles.getVx(i));
+      for (int i = 0; i < size; i++) buffer.putFloat(particles.getVy(i));
+      for (int i = 0; i < size; i++) buffer.putFloat(particles.getDirX(i));
+      for (int i = 0; i < size; i++) buffer.putFloat(particles.getDirY(i));
+      for (int i = 0; i < size; i++) buffer.putInt(particles.getSpecies(i));
+      for (int i = 0; i < size; i++) buffer.putInt(particles.getId(i));
+      buffer.force();
+    }
+    Files.move(
+        temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Читает контрольную точку; число молекул и вид берутся из {@code config} и должны совпадать.
+   * При хранилище вне кучи точка версии 2 и новее отображается из файла только для чтения.
+   */
+  public static Checkpoint read(Path path, SimulationConfig config) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < V2_HEADER_BYTES) {
+        throw new IOException(path + " is too short for a checkpoint");
+      }
+      MappedByteBuffer buffer =
+          channel.map(
+              FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_BYTES));
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException(path + " is not a checkpoint");
+      }
+      int version = buffer.getInt();
+      if (version < 1 || version > VERSION) {
+        throw new IOException("Unsupported checkpoint version " + version + " in " + path);
+      }
+      int size = buffer.getInt();
+      float timeStep = buffer.getFloat();
+      if (timeStep <= 0) {
+        timeStep = config.simulation.timeStep();
+      }
+      if (size != config.simulation.numberOfMolecules()) {
+        throw new IOException(
+            path + " holds " + size + " molecules, config expects "
+                + config.simulation.numberOfMolecules());
+      }
+      int bytesPerMolecule = version == 1 ? V1_BYTES_PER_MOLECULE : BYTES_PER_MOLECULE;
+      int headerBytes = version < 3 ? V2_HEADER_BYTES : HEADER_BYTES;
+      if (channel.size() != headerBytes + (long) size * bytesPerMolecule) {
+        throw new IOException(path + " is truncated");
+      }
+
+      Checkpoint checkpoint =
+          version > 1 && Particles.isDirect(config.simulation.storage())
+              ? new Checkpoint(
+                  DirectParticles.map(
+                      channel, FileChannel.MapMode.READ_ONLY, headerBytes, size, config.molecule))
+              : allocate(config);
+      checkpoint.seed = buffer.getLong();
+      long step = buffer.getLong();
+      double time = buffer.getDouble();
+      boolean expanding = buffer.getInt() != 0;
+      int flags = buffer.getInt();
+      boolean compressing = version < 3 ? flags != 0 : (flags & 1) != 0;
+      boolean holding = version >= 3 && (flags & 2) != 0;
+      SimulationDriver.Phase[] phases = SimulationDriver.Phase.values();
+      int heldOrdinal = version < 3 ? 0 : Math.min(flags >>> 2, phases.length - 1);
+      SimulationDriver.Phase heldPhase = phases[heldOrdinal];
+      double isobaricStartTemp = buffer.getDouble();
+      double isobaricStartArea = buffer.getDouble();
+      int thermostatSteps = buffer.getInt();
+      checkpoint.phase =
+          new SimulationDriver.PhaseState(
+              expanding,
+              compressing,
+              isobaricStartTemp,
+              isobaricStartArea,
+              thermostatSteps,
+              step,
+              time,
+              timeStep,
+              holding,
+              heldPhase);
+      checkpoint.width = buffer.getFloat();
+      checkpoint.wallVelocity = buffer.getFloat();
+      float wallImpulseTime = buffer.getFloat();
+      checkpoint.wallImpulse = buffer.getDouble();
+      checkpoint.wallImpulseTime =
+          wallImpulseTime > 0 || checkpoint.wallImpulse == 0 ? wallImpulseTime : timeStep;
+      checkpoint.collisionCount = buffer.getLong();
+      checkpoint.kineticEnergy = version < 3 ? Double.NaN : buffer.getDouble();
+      checkpoint.kineticEnergyAge = version < 3 ? 0 : buffer.getInt();
+      if (checkpoint.particles instanceof DirectParticles && version > 1) {
+        return checkpoint;
+      }
+
+      buffer =
+          channel.map(
+              FileChannel.MapMode.READ_ONLY, headerBytes, (long) size * bytesPerMolecule);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      Particles particles = checkpoint.particles;
+      for (int i = 0; i < size; i++) particles.setX(i, buffer.getFloat());
+      for (int i = 0; i < size; i++) particles.setY(i, buffer.getFloat());
+      for (int i = 0; i < size; i++) particles.setVx(i, buffer.getFloat());
+      for (int i = 0; i < size; i++) particles.setVy(i, buffer.getFloat());
+      for (int i = 0; i < size; i++) {
+        particles.setDirection(i, buffer.getFloat(), particles.getDirY(i));
+      }
+      for (int i = 0; i < size; i++) {
+        particles.setDirection(i, particles.getDirX(i), buffer.getFloat());
+      }
+      for (int i = 0; i < size; i++) particles.setSpecies(i, buffer.getInt());
+      if (version > 1) {
+        for (int i = 0; i < size; i++) particles.setId(i, buffer.getInt());
+      }
+      return checkpoint;
+    }
+  }
+
+  /** Создаёт драйвер по конфигу и переносит в него состояние из контрольной точки. */
+  public SimulationDriver restore(SimulationConfig config) {
+    SimulationDriver driver = SimulationDriver.create(config);
+    restorable(driver)
+        .restore(
+            particles,
+            width,
+            wallVelocity,
+            wallImpulse,
+            wallImpulseTime,
+            collisionCount,
+            kineticEnergy,
+            kineticEnergyAge);
+    driver.restorePhaseState(phase);
+    return driver;
+  }
+
+  private static RestorableEngine restorable(SimulationDriver driver) {
+    if (!(driver.getEngine() instanceof RestorableEngine)) {
+      throw new IllegalArgumentException(
+          driver.getEngine().getClass().getSimpleName() + " does not support checkpoints");
+    }
+    return (RestorableEngine) driver.getEngine();
+  }
+
+  /** Освобождает хранилище снимка или снимает отображение файла. */
+  @Override
+  public void close() {
+    particles.close();
+  }
+}
@@ -0,0 +1,88 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Периодические контрольные точки: раз в {@code stride} шагов состояние копируется в снимок, а в
+ * файл его пишет фоновый поток. Снимок один на всё время работы, поэтому если предыдущая запись
+ * ещё не закончилась, очередная точка пропускается, а не ставится в очередь.
+ */
+public class CheckpointWriter implements SimulationDriver.StepListener, AutoCloseable {
+  private final SimulationConfig config;
+  private final Path path;
+  private final int stride;
+  private final Checkpoint snapshot;
+  private final ExecutorService executor;
+  private Future<?> pending;
+  private long skipped;
+
+  public CheckpointWriter(SimulationConfig config, Path path, int stride) {
+    if (stride < 1) {
+      throw new IllegalArgumentException("Stride must be positive: " + stride);
+    }
+    this.config = config;
+    this.path = path;
+    this.stride = stride;
+    this.snapshot = Checkpoint.allocate(config);
+    this.executor =
+        Executors.newSingleThreadExecutor(
+            task -> {
+              Thread thread = new Thread(task, "checkpoint-writer");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @Override
+  public void onStep(SimulationDriver driver) {
+    if (driver.getStep() % stride != 0) {
+      return;
+    }
+    if (pending != null && !pending.isDone()) {
+      ++skipped;
+      return;
+    }
+    snapshot.capture(driver, config);
+    pending =
+        executor.submit(
+            () -> {
+              try {
+                snapshot.write(path);
+              } catch (IOException e) {
+                System.err.println(
+                    "Failed to write checkpoint at step " + snapshot.getStep() + ": " + e);
+              }
+            });
+  }
+
+  /** Сколько точек пропущено из-за того, что предыдущая ещё писалась. */
+  public long getSkipped() {
+    return skipped;
+  }
+
+  /** Дожидается текущей записи, останавливает поток и освобождает снимок. */
+  @Override
+  public void close() {
+    executor.shutdown();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    snapshot.close();
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package org.mipt;
+
+import org.mipt.entity.Particles;
+
+/**
+ * Узкая фаза столкновений без выделения памяти. Одноатомные молекулы проверяются сравнением
+ * квадрата расстояния между центрами, для двухатомных сначала отсекаем по описанным окружностям и
+ * только потом считаем расстояние между отрезками связей.
+ *
+ * <p>При периодических границах вторая молекула пары берётся в образе, сдвинутом на {@code (shiftX,
+ * shiftY)} — целое число периодов ящика.
+ */
+public final class CollisionKernel {
+  private CollisionKernel() {}
+
+  public static boolean isColliding(Particles particles, int first, int second) {
+    return isColliding(particles, first, second, 0, 0);
+  }
+
+  public static boolean isColliding(
+      Particles particles, int first, int second, float shiftX, float shiftY) {
+    float secondX = particles.getX(second) + shiftX;
+    float secondY = particles.getY(second) + shiftY;
+    float dx = secondX - particles.getX(first);
+    float dy = secondY - particles.getY(first);
+    float contact = (particles.getDiameter(first) + particles.getDiameter(second)) / 2;
+    float centerDistance2 = dx * dx + dy * dy;
+
+    float halfA = particles.getHalfBoundLength(first);
+    float halfB = particles.getHalfBoundLength(second);
+    if (halfA == 0 && halfB == 0) {
+      return centerDistance2 < contact * contact;
+    }
+
+    float reach = contact + halfA + halfB;
+    if (centerDistance2 >= reach * reach) {
+      return false;
+    }
+
+    float ax = particles.getDirX(first) * halfA;
+    float ay = particles.getDirY(first) * halfA;
+    float bx = particles.getDirX(second) * halfB;
+    float by = particles.getDirY(second) * halfB;
+    float distance2 =
+        segmentDistance2(
+            particles.getX(first) - ax,
+            particles.getY(first) - ay,
+            2 * ax,
+            2 * ay,
+            secondX - bx,
+            secondY - by,
+            2 * bx,
+            2 * by);
+    return distance2 < contact * contact;
+  }
+
+  /**
+   * Расстояние между центрами в момент касания. Шаг находит пару уже перекрытой, поэтому
+   * перекрытие вычитается вдоль линии центров; у одноатомных это просто {@code (d1 + d2) / 2}.
+   */
+  public static float contactDistance(
+      Particles particles, int first, int second, float shiftX, float shiftY) {
+    float contact = (particles.getDiameter(first) + particles.getDiameter(second)) / 2;
+    float halfA = particles.getHalfBoundLength(first);
+    float halfB = particles.getHalfBoundLength(second);
+    if (halfA == 0 && halfB == 0) {
+      return contact;
+    }
+    float secondX = particles.getX(second) + shiftX;
+    float secondY = particles.getY(second) + shiftY;
+    float dx = secondX - particles.getX(first);
+    float dy = secondY - particles.getY(first);
+    float ax = particles.getDirX(first) * halfA;
+    float ay = particles.getDirY(first) * halfA;
+    float bx = particles.getDirX(second) * halfB;
+    float by = particles.getDirY(second) * halfB;
+    float distance2 =
+        segmentDistance2(
+            particles.getX(first) - ax,
+            particles.getY(first) - ay,
+            2 * ax,
+            2 * ay,
+            secondX - bx,
+            secondY - by,
+            2 * bx,
+            2 * by);
+    return (float) Math.sqrt(dx * dx + dy * dy) + contact - (float) Math.sqrt(distance2);
+  }
+
+  /**
+   * Квадрат расстояния между отрезками {@code p1 + s * d1} и {@code p2 + t * d2}, {@code s, t} из
+   * [0, 1]. Пересекающиеся отрезки дают 0.
+   */
+  static float segmentDistance2(
+      float p1x, float p1y, float d1x, float d1y, float p2x, float p2y, float d2x, float d2y) {
+    float rx = p1x - p2x;
+    float ry = p1y - p2y;
+    float a = d1x * d1x + d1y * d1y;
+    float e = d2x * d2x + d2y * d2y;
+    float f = d2x * rx + d2y * ry;
+
+    float s;
+    float t;
+    if (a <= Float.MIN_NORMAL && e <= Float.MIN_NORMAL) {
+      return rx * rx + ry * ry;
+    }
+    if (a <= Float.MIN_NORMAL) {
+      s = 0;
+      t = clamp01(f / e);
+    } else {
+      float c = d1x * rx + d1y * ry;
+      if (e <= Float.MIN_NORMAL) {
+        t = 0;
+        s = clamp01(-c / a);
+      } else {
+        float b = d1x * d2x + d1y * d2y;
+        float denom = a * e - b * b;
+        s = denom > 0 ? clamp01((b * f - c * e) / denom) : 0;
+        t = (b * s + f) / e;
+        if (t < 0) {
+          t = 0;
+          s = clamp01(-c / a);
+        } else if (t > 1) {
+          t = 1;
+          s = clamp01((b - c) / a);
+        }
+      }
+    }
+
+    float qx = rx + d1x * s - d2x * t;
+    float qy = ry + d1y * s - d2y * t;
+    return qx * qx + qy * qy;
+  }
+
+  private static float clamp01(float value) {
+    return value < 0 ? 0 : (value > 1 ? 1 : value);
+  }
+
+  /**
+   * Упругий удар вдоль линии центров. Возвращает {@code false}, если молекулы уже разлетаются и
+   * скорости не менялись.
+   */
+  public static boolean resolveCollision(Particles particles, int first, int second) {
+    return resolveCollision(particles, first, second, 0, 0);
+  }
+
+  public static boolean resolveCollision(
+      Particles particles, int first, int second, float shiftX, float shiftY) {
+    float nx = particles.getX(second) + shiftX - particles.getX(first);
+    float ny = particles.getY(second) + shiftY - particles.getY(first);
+    float length2 = nx * nx + ny * ny;
+    if (length2 == 0) {
+      return false;
+    }
+    float inverseLength = (float) (1 / Math.sqrt(length2));
+    nx *= inverseLength;
+    ny *= inverseLength;
+
+    float v1x = particles.getVx(first);
+    float v1y = particles.getVy(first);
+    float v2x = particles.getVx(second);
+    float v2y = particles.getVy(second);
+
+    float velocityAlongNormal = (v2x - v1x) * nx + (v2y - v1y) * ny;
+    if (velocityAlongNormal >= 0) {
+      return false;
+    }
+
+    float m1 = particles.getMass(first);
+    float m2 = particles.getMass(second);
+    float impulseScalar = -2 * velocityAlongNormal / (1 / m1 + 1 / m2);
+
+    particles.setVelocity(first, v1x - nx * impulseScalar / m1, v1y - ny * impulseScalar / m1);
+    particles.setVelocity(second, v2x + nx * impulseScalar / m2, v2y + ny * impulseScalar / m2);
+    return true;
+  }
+}
@@ -0,0 +1,112 @@
+package org.mipt;
+
+import java.util.Arrays;
+import org.mipt.entity.Particles;
+
+/**
+ * Поля плотности и температуры на грубой сетке блоков. Блок — квадрат из {@code block x block}
+ * клеток {@link CellList}, размер блока подбирается так, чтобы по большей стороне было не больше
+ * {@link #MAX_RESOLUTION} блоков. Плотность берётся из числа молекул в клетках за O(клеток);
+ * температуре нужна кинетическая энергия каждой молекулы, поэтому она стоит O(N).
+ */
+public class DensityMap {
+  public static final int MAX_RESOLUTION = 128;
+
+  private int cellColumns = -1;
+  private int cellRows = -1;
+  private int block;
+  private int columns;
+  private int rows;
+  private float originX;
+  private float originY;
+  private float cellEdge;
+  private float blockEdge;
+  private int[] counts = new int[0];
+  private float[] temperature = new float[0];
+  private boolean hasTemperature;
+
+  /** Пересчитывает поля по уже перестроенной сетке {@code cells}. */
+  public void update(CellList cells, Particles particles, boolean withTemperature) {
+    resize(cells);
+    Arrays.fill(counts, 0);
+    hasTemperature = withTemperature;
+    if (withTemperature) {
+      Arrays.fill(temperature, 0);
+    }
+
+    for (int row = 0; row < cellRows; row++) {
+      int blockRow = (row / block) * columns;
+      for (int col = 0; col < cellColumns; col++) {
+        int cell = row * cellColumns + col;
+        int b = blockRow + col / block;
+        counts[b] += cells.cellCount(cell);
+        if (withTemperature) {
+          int begin = cells.cellStart(cell);
+          int end = begin + cells.cellCount(cell);
+          for (int slot = begin; slot < end; slot++) {
+            temperature[b] += (float) particles.kineticEnergy(cells.molecule(slot));
+          }
+        }
+      }
+    }
+
+    if (withTemperature) {
+      for (int b = 0; b < counts.length; b++) {
+        temperature[b] = counts[b] > 0 ? (float) (temperature[b] / (counts[b] * Physics.k)) : Float.NaN;
+      }
+    }
+  }
+
+  private void resize(CellList cells) {
+    if (cells.getColumns() == cellColumns && cells.getRows() == cellRows) {
+      return;
+    }
+    cellColumns = cells.getColumns();
+    cellRows = cells.getRows();
+    block = Math.max(1, (Math.max(cellColumns, cellRows) + MAX_RESOLUTION - 1) / MAX_RESOLUTION);
+    columns = (cellColumns + block - 1) / block;
+    rows = (cellRows + block - 1) / block;
+    originX = cells.getOriginX();
+    originY = cells.getOriginY();
+    cellEdge = cells.getCellEdge();
+    blockEdge = cellEdge * block;
+    counts = new int[columns * rows];
+    temperature = new float[columns * rows];
+  }
+
+  public int getColumns() {
+    return columns;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public float getOriginX() {
+    return originX;
+  }
+
+  public float getOriginY() {
+    return originY;
+  }
+
+  public float getBlockEdge() {
+    return blockEdge;
+  }
+
+  public int getCount(int column, int row) {
+    return counts[row * columns + column];
+  }
+
+  /** Молекул на квадратный метр в блоке; крайние блоки могут быть неполными. */
+  public float getDensity(int column, int row) {
+    int width = Math.min(block, cellColumns - column * block);
+    int height = Math.min(block, cellRows - row * block);
+    return counts[row * columns + column] / (width * height * cellEdge * cellEdge);
+  }
+
+  /** Температура блока, К; {@code NaN}, если блок пуст или температура не считалась. */
+  public float getTemperature(int column, int row) {
+    return hasTemperature ? temperature[row * columns + column] : Float.NaN;
+  }
+}
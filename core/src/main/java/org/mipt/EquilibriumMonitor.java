@@ -0,0 +1,128 @@
+package org.mipt;
+
+/**
+ * Признак равновесия по рядам давления и температуры. Шаги собираются в блоки по {@code
+ * blockSteps}; по последним {@code 2 * }{@link #DRIFT_BLOCKS} средним блоков проверяется дрейф:
+ * средние старшей и младшей половин окна должны различаться не больше чем на {@code tolerance} от
+ * среднего плюс две стандартные ошибки разности. Пока дрейф есть у давления или у температуры,
+ * система считается неравновесной.
+ *
+ * <p>После равновесия монитор набирает {@code sampleBlocks} следующих блоков: их средние дают
+ * оценку величин со стандартной ошибкой по блокам, которая честна, если блок длиннее времени
+ * корреляции.
+ */
+public final class EquilibriumMonitor {
+  /** Блоков в каждой половине окна проверки дрейфа. */
+  public static final int DRIFT_BLOCKS = 4;
+
+  private final int blockSteps;
+  private final double tolerance;
+  private final int sampleBlocks;
+
+  private double blockPressure;
+  private double blockTemperature;
+  private int stepsInBlock;
+  // средние последних блоков по кругу
+  private final double[] pressureBlocks = new double[2 * DRIFT_BLOCKS];
+  private final double[] temperatureBlocks = new double[2 * DRIFT_BLOCKS];
+  private long blocks;
+  private long steps;
+  private long equilibrationSteps = -1;
+
+  private final Welford pressure = new Welford();
+  private final Welford temperature = new Welford();
+
+  public EquilibriumMonitor(int blockSteps, double tolerance, int sampleBlocks) {
+    if (blockSteps < 1 || sampleBlocks < 1 || tolerance < 0) {
+      throw new IllegalArgumentException(
+          "Need positive block length and sample count and non-negative tolerance");
+    }
+    this.blockSteps = blockSteps;
+    this.tolerance = tolerance;
+    this.sampleBlocks = sampleBlocks;
+  }
+
+  /** Начинает новый ряд. */
+  public void reset() {
+    blockPressure = 0;
+    blockTemperature = 0;
+    stepsInBlock = 0;
+    blocks = 0;
+    steps = 0;
+    equilibrationSteps = -1;
+    pressure.reset();
+    temperature.reset();
+  }
+
+  public void add(double p, double t) {
+    steps++;
+    blockPressure += p;
+    blockTemperature += t;
+    if (++stepsInBlock < blockSteps) {
+      return;
+    }
+    double meanPressure = blockPressure / blockSteps;
+    double meanTemperature = blockTemperature / blockSteps;
+    blockPressure = 0;
+    blockTemperature = 0;
+    stepsInBlock = 0;
+
+    if (isEquilibrated()) {
+      pressure.add(meanPressure);
+      temperature.add(meanTemperature);
+      return;
+    }
+    int slot = (int) (blocks % pressureBlocks.length);
+    pressureBlocks[slot] = meanPressure;
+    temperatureBlocks[slot] = meanTemperature;
+    blocks++;
+    if (blocks >= pressureBlocks.length
+        && isStationary(pressureBlocks)
+        && isStationary(temperatureBlocks)) {
+      equilibrationSteps = steps;
+    }
+  }
+
+  private boolean isStationary(double[] ring) {
+    Welford older = new Welford();
+    Welford newer = new Welford();
+    // самый старый блок лежит в слоте blocks % length
+    for (int k = 0; k < ring.length; k++) {
+      double value = ring[(int) ((blocks + k) % ring.length)];
+      (k < DRIFT_BLOCKS ? older : newer).add(value);
+    }
+    double difference = Math.abs(newer.mean() - older.mean());
+    double noise = Math.hypot(older.standardError(), newer.standardError());
+    double mean = (older.mean() + newer.mean()) / 2;
+    return difference <= tolerance * Math.abs(mean) + 2 * noise;
+  }
+
+  public boolean isEquilibrated() {
+    return equilibrationSteps >= 0;
+  }
+
+  /** Равновесие достигнуто и нужное число блоков набрано. */
+  public boolean isSampled() {
+    return pressure.count() >= sampleBlocks;
+  }
+
+  /** Сколько шагов ушло до равновесия; -1, пока его нет. */
+  public long getEquilibrationSteps() {
+    return equilibrationSteps;
+  }
+
+  /** Шагов с начала ряда. */
+  public long getSteps() {
+    return steps;
+  }
+
+  /** Средние давления по блокам после равновесия. */
+  public Welford getPressure() {
+    return pressure;
+  }
+
+  /** Средние температуры по блокам после равновесия. */
+  public Welford getTemperature() {
+    return temperature;
+  }
+}
@@ -0,0 +1,770 @@
+package org.mipt;
+
+import java.util.Arrays;
+import org.mipt.entity.Molecule;
+import org.mipt.entity.Particles;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Событийная молекулярная динамика твёрдых дисков. Вместо шага по времени держит очередь
+ * предсказанных событий: удар двух молекул, удар о стенку и переход молекулы в соседнюю клетку
+ * сетки. Устаревшие события не удаляются, а отбрасываются при извлечении: парные по счётчикам
+ * столкновений обеих молекул, граничные (переход клетки и стенка) по счётчику пересчётов границ.
+ *
+ * <p>Скорости хранятся в приведённом виде: настоящая скорость равна {@code scale * u}, и часы
+ * движка идут в приведённом времени {@code tau = scale * t}. Поэтому нагрев и термостат меняют
+ * только {@code scale} и не трогают очередь; перепланировать приходится лишь молекулы у
+ * движущейся стенки, потому что её приведённая скорость зависит от {@code scale}.
+ *
+ * <p>Сетка рассчитана на ширину до {@link SimulationDriver#EXPANSION_FACTOR} начальной. Колонки
+ * добавляются и убираются, когда движущаяся стенка пересекает край клетки; перекладывается
+ * только последняя колонка, так что она всегда шире клетки, но уже двух.
+ *
+ * <p>Позиции молекул обновляются лениво, {@link #getParticles()} приводит их к текущему моменту.
+ * Поддерживаются только одноатомные молекулы.
+ */
+public class EventDrivenPhysics implements RestorableEngine {
+  private static final int CROSS_X = -1;
+  private static final int CROSS_Y = -2;
+  private static final int WALL_LEFT = -3;
+  private static final int WALL_RIGHT = -4;
+  private static final int WALL_BOTTOM = -5;
+  private static final int WALL_TOP = -6;
+
+  private final SimulationConfig config;
+  private final int size;
+  private final double mass;
+  private final double radius;
+  private final double contact2;
+
+  private final double leftPlane;
+  private final double bottomPlane;
+  private final double topPlane;
+  private final double originX;
+  private final double originY;
+
+  // правая стенка: положение в момент wallTau и настоящая скорость
+  private double wallX;
+  private double wallTau;
+  private double wallVelocity;
+  // момент, когда стенка пересечёт край клетки и число колонок поменяется
+  private double gridTau = Double.POSITIVE_INFINITY;
+
+  private double scale = 1;
+  private double tau;
+
+  private final double[] x;
+  private final double[] y;
+  private final double[] ux;
+  private final double[] uy;
+  private final double[] localTau;
+  private final int[] count;
+  private final int[] boundaryCount;
+
+  private final double cellEdge;
+  private int columns;
+  private final int rows;
+  // клетка (col, row) лежит в head[row * stride + col], под колонки за стенкой место оставлено
+  private int stride;
+  private int[] head;
+  private final int[] next;
+  private final int[] prev;
+  private final int[] cellOf;
+
+  private double[] eventTime;
+  private int[] eventA;
+  private int[] eventB;
+  private int[] eventCountA;
+  private int[] eventCountB;
+  private int heapSize;
+  private double poppedTime;
+  private int poppedA;
+  private int poppedB;
+  private int poppedCountA;
+  private int poppedCountB;
+
+  private double reducedKineticEnergy;
+  private double accumulatedImpulse;
+  private double impulseTime;
+  private long collisionCount;
+  private long eventCount;
+
+  private final Particles particles;
+  private final Molecule[] molecules;
+  private boolean particlesSynced = true;
+
+  public EventDrivenPhysics(SimulationConfig config, Molecule[] molecules) {
+    if (config.molecule.halfBoundLength() != 0) {
+      throw new IllegalArgumentException(
+          "Event-driven engine supports only monatomic molecules (halfBoundLength = 0)");
+    }
+    if (Physics.isPeriodic(config.simulation.boundary())) {
+      throw new IllegalArgumentException("Event-driven engine supports only walls as boundary");
+    }
+    this.config = config;
+    this.size = molecules.length;
+    this.mass = config.molecule.mass();
+    this.radius = config.molecule.diameter() / 2.0;
+    this.contact2 = (double) config.molecule.diameter() * config.molecule.diameter();
+
+    this.originX = config.vessel.position().x;
+    this.originY = config.vessel.position().y;
+    this.leftPlane = originX + radius;
+    this.bottomPlane = originY + radius;
+    this.topPlane = originY + config.vessel.height() - radius;
+    this.wallX = originX + config.vessel.width();
+
+    this.particles = Particles.create(config.simulation.storage(), size, config.molecule);
+    Physics.initializeMolecules(config, particles);
+    this.molecules = molecules;
+    for (int i = 0; i < size; i++) {
+      molecules[i] = new Molecule(particles, i);
+    }
+
+    this.x = new double[size];
+    this.y = new double[size];
+    this.ux = new double[size];
+    this.uy = new double[size];
+    this.localTau = new double[size];
+    this.count = new int[size];
+    this.boundaryCount = new int[size];
+
+    this.cellEdge =
+        CellList.cellEdge(
+            config.molecule.diameter(),
+            (double) config.vessel.width() * config.vessel.height(),
+            size,
+            config.simulation.cellOccupancy());
+    this.columns = Math.max(1, (int) (config.vessel.width() / cellEdge));
+    this.rows = Math.max(1, (int) (config.vessel.height() / cellEdge));
+    this.stride =
+        Math.max(
+            columns,
+            (int) (config.vessel.width() * SimulationDriver.EXPANSION_FACTOR / cellEdge));
+    this.head = new int[stride * rows];
+    this.next = new int[size];
+    this.prev = new int[size];
+    this.cellOf = new int[size];
+
+    int capacity = Math.max(1024, 8 * size);
+    this.eventTime = new double[capacity];
+    this.eventA = new int[capacity];
+    this.eventB = new int[capacity];
+    this.eventCountA = new int[capacity];
+    this.eventCountB = new int[capacity];
+    load();
+  }
+
+  /**
+   * Переносит молекулы из {@link #particles} в приведённое состояние, раскладывает по клеткам и
+   * заново планирует все события. Часы и масштаб скоростей сбрасываются, стенка стоит в {@link
+   * #wallX}.
+   */
+  private void load() {
+    scale = 1;
+    tau = 0;
+    wallTau = 0;
+    heapSize = 0;
+    reducedKineticEnergy = 0;
+    for (int i = 0; i < size; i++) {
+      x[i] = particles.getX(i);
+      y[i] = particles.getY(i);
+      ux[i] = particles.getVx(i);
+      uy[i] = particles.getVy(i);
+      localTau[i] = 0;
+      reducedKineticEnergy += 0.5 * mass * (ux[i] * ux[i] + uy[i] * uy[i]);
+    }
+
+    columns = Math.max(1, (int) ((wallX - originX) / cellEdge));
+    if (columns > stride) {
+      stride = columns;
+      head = new int[stride * rows];
+    }
+    Arrays.fill(head, -1);
+    for (int i = 0; i < size; i++) {
+      insert(i, cellOf(x[i], y[i]));
+    }
+    for (int i = 0; i < size; i++) {
+      predictBoundaries(i);
+      predictPairs(i, true);
+    }
+    predictGridChange();
+    particlesSynced = true;
+  }
+
+  // ---------------------------------------------------------------- SimulationEngine
+
+  /** Обрабатывает все события до момента {@code t + dt}. */
+  public void applyPhysics(float dt) {
+    double target = tau + scale * dt;
+    while (true) {
+      if (gridTau <= target && (heapSize == 0 || gridTau <= eventTime[0])) {
+        tau = gridTau;
+        shiftWallColumn();
+        continue;
+      }
+      if (heapSize == 0 || eventTime[0] > target) {
+        break;
+      }
+      pop();
+      if (!isValid(poppedA, poppedB, poppedCountA, poppedCountB)) {
+        continue;
+      }
+      tau = poppedTime;
+      eventCount++;
+      if (poppedB >= 0) {
+        collide(poppedA, poppedB);
+      } else if (poppedB == CROSS_X || poppedB == CROSS_Y) {
+        crossCell(poppedA, poppedB);
+      } else {
+        hitWall(poppedA, poppedB);
+      }
+    }
+    tau = target;
+    impulseTime += dt;
+    particlesSynced = false;
+
+    if (heapSize > 16 * size + 1024) {
+      compact();
+    }
+  }
+
+  /** Столкновения уже обработаны в {@link #applyPhysics}. */
+  public void collisions() {}
+
+  /** Удары о стенки уже обработаны в {@link #applyPhysics}. */
+  public void handleCollisionsWithWalls() {}
+
+  public double calculatePressure() {
+    if (impulseTime <= 0) {
+      return 0;
+    }
+    double totalForce = accumulatedImpulse / impulseTime;
+    accumulatedImpulse = 0;
+    impulseTime = 0;
+    double perimeter = 2 * (getWidth() + config.vessel.height());
+    return totalForce / perimeter;
+  }
+
+  public double calcTemp() {
+    return scale * scale * reducedKineticEnergy / (size * Physics.k);
+  }
+
+  public double calcArea() {
+    return getWidth() * config.vessel.height();
+  }
+
+  public void heatStep(double deltaTemp) {
+    double currentTemp = calcTemp();
+    double nextTemp = currentTemp + deltaTemp;
+    setScale(scale * Math.sqrt(nextTemp / currentTemp));
+  }
+
+  public void applyThermostat(double targetTemp) {
+    double currentTemp = calcTemp();
+
+    if (Math.abs(currentTemp - targetTemp) <= 0.01) return;
+
+    setScale(scale * Math.sqrt(targetTemp / currentTemp));
+  }
+
+  /** Стенка движется непрерывно внутри {@link #applyPhysics}. */
+  public void moveWall(double dt) {}
+
+  public void setWallVelocity(float wallVelocity) {
+    if (wallVelocity == this.wallVelocity) {
+      return;
+    }
+    wallX = wallAt(tau);
+    wallTau = tau;
+    this.wallVelocity = wallVelocity;
+    reschedulePartnersOfWall();
+    predictGridChange();
+  }
+
+  public void turnOffWallMoving() {
+    setWallVelocity(0);
+  }
+
+  public float getWidth() {
+    return (float) (wallAt(tau) - originX);
+  }
+
+  public Particles getParticles() {
+    if (!particlesSynced) {
+      for (int i = 0; i < size; i++) {
+        double elapsed = tau - localTau[i];
+        particles.setPosition(i, (float) (x[i] + ux[i] * elapsed), (float) (y[i] + uy[i] * elapsed));
+        particles.setVelocity(i, (float) (scale * ux[i]), (float) (scale * uy[i]));
+      }
+      particlesSynced = true;
+    }
+    return particles;
+  }
+
+  public Molecule[] getMolecules() {
+    getParticles();
+    return molecules;
+  }
+
+  public void dispose() {
+    particles.close();
+  }
+
+  /** Клетки событийного движка — связные списки, CSR-сетки у него нет. */
+  public CellList getCells() {
+    return null;
+  }
+
+  public float getWallVelocity() {
+    return (float) wallVelocity;
+  }
+
+  public double getWallImpulse() {
+    return accumulatedImpulse;
+  }
+
+  public double getWallImpulseTime() {
+    return impulseTime;
+  }
+
+  /** Очередь событий строится заново, поэтому и энергия пересчитывается по молекулам. */
+  public void restore(
+      Particles state,
+      float width,
+      float wallVelocity,
+      double wallImpulse,
+      double wallImpulseTime,
+      long collisionCount,
+      double kineticEnergy,
+      int kineticEnergyAge) {
+    particles.copyFrom(state);
+    this.wallX = originX + width;
+    this.wallVelocity = wallVelocity;
+    this.accumulatedImpulse = wallImpulse;
+    this.impulseTime = wallImpulseTime;
+    this.collisionCount = collisionCount;
+    load();
+  }
+
+  public double getKineticEnergy() {
+    return scale * scale * reducedKineticEnergy;
+  }
+
+  public long getCollisionCount() {
+    return collisionCount;
+  }
+
+  public long getEventCount() {
+    return eventCount;
+  }
+
+  // ---------------------------------------------------------------- события
+
+  private void collide(int i, int j) {
+    sync(i);
+    sync(j);
+    double dx = x[j] - x[i];
+    double dy = y[j] - y[i];
+    double dvx = ux[j] - ux[i];
+    double dvy = uy[j] - uy[i];
+    double b = dx * dvx + dy * dvy;
+    if (b < 0) {
+      double energyBefore = ux[i] * ux[i] + uy[i] * uy[i] + ux[j] * ux[j] + uy[j] * uy[j];
+      // равные массы: обмен нормальными составляющими скорости
+      double factor = b / (dx * dx + dy * dy);
+      ux[i] += factor * dx;
+      uy[i] += factor * dy;
+      ux[j] -= factor * dx;
+      uy[j] -= factor * dy;
+      double energyAfter = ux[i] * ux[i] + uy[i] * uy[i] + ux[j] * ux[j] + uy[j] * uy[j];
+      reducedKineticEnergy += 0.5 * mass * (energyAfter - energyBefore);
+      collisionCount++;
+    }
+    count[i]++;
+    count[j]++;
+    predictBoundaries(i);
+    predictPairs(i, false);
+    predictBoundaries(j);
+    predictPairs(j, false);
+  }
+
+  private void crossCell(int i, int axis) {
+    sync(i);
+    int cell = cellOf[i];
+    int col = cell % stride;
+    int row = cell / stride;
+    int step;
+    if (axis == CROSS_X) {
+      step = ux[i] > 0 ? 1 : -1;
+      col += step;
+    } else {
+      step = uy[i] > 0 ? 1 : -1;
+      row += step;
+    }
+    remove(i);
+    insert(i, row * stride + col);
+
+    predictBoundaries(i);
+    // новые соседи — только дальняя по направлению движения полоса из трёх клеток
+    for (int d = -1; d <= 1; d++) {
+      if (axis == CROSS_X) {
+        predictPairsInCell(i, col + step, row + d, false);
+      } else {
+        predictPairsInCell(i, col + d, row + step, false);
+      }
+    }
+  }
+
+  private void hitWall(int i, int wall) {
+    sync(i);
+    double before = ux[i] * ux[i] + uy[i] * uy[i];
+    switch (wall) {
+      case WALL_LEFT -> {
+        x[i] = Math.max(x[i], leftPlane);
+        accumulatedImpulse += 2 * mass * Math.abs(ux[i]) * scale;
+        ux[i] = Math.abs(ux[i]);
+      }
+      case WALL_RIGHT -> {
+        double wallU = wallVelocity / scale;
+        double relative = ux[i] - wallU;
+        if (relative > 0) {
+          ux[i] = wallU - relative;
+          accumulatedImpulse += 2 * mass * relative * scale;
+        }
+        x[i] = Math.min(x[i], wallAt(tau) - radius);
+      }
+      case WALL_BOTTOM -> {
+        y[i] = Math.max(y[i], bottomPlane);
+        accumulatedImpulse += 2 * mass * Math.abs(uy[i]) * scale;
+        uy[i] = Math.abs(uy[i]);
+      }
+      default -> {
+        y[i] = Math.min(y[i], topPlane);
+        accumulatedImpulse += 2 * mass * Math.abs(uy[i]) * scale;
+        uy[i] = -Math.abs(uy[i]);
+      }
+    }
+    reducedKineticEnergy += 0.5 * mass * (ux[i] * ux[i] + uy[i] * uy[i] - before);
+    count[i]++;
+    predictBoundaries(i);
+    predictPairs(i, false);
+  }
+
+  private void setScale(double newScale) {
+    if (wallVelocity != 0) {
+      wallX = wallAt(tau);
+      wallTau = tau;
+      scale = newScale;
+      reschedulePartnersOfWall();
+      predictGridChange();
+    } else {
+      scale = newScale;
+    }
+  }
+
+  /** Приведённая скорость правой стенки поменялась: перепланируем молекулы последней колонки. */
+  private void reschedulePartnersOfWall() {
+    for (int row = 0; row < rows; row++) {
+      for (int i = head[row * stride + columns - 1]; i >= 0; i = next[i]) {
+        sync(i);
+        count[i]++;
+        predictBoundaries(i);
+        predictPairs(i, false);
+      }
+    }
+  }
+
+  /**
+   * Стенка дошла до края клетки: при расширении молекулы за этим краем уходят из последней колонки
+   * в новую, при сжатии последняя колонка сливается с соседней. Граничные события перепланируются
+   * только у молекул этих колонок.
+   */
+  private void shiftWallColumn() {
+    int last = columns - 1;
+    if (wallVelocity > 0) {
+      if (columns == stride) {
+        growStride();
+      }
+      columns++;
+      double edge = originX + (last + 1) * cellEdge;
+      for (int row = 0; row < rows; row++) {
+        for (int i = head[row * stride + last], following; i >= 0; i = following) {
+          following = next[i];
+          sync(i);
+          if (x[i] >= edge) {
+            remove(i);
+            insert(i, row * stride + last + 1);
+          }
+        }
+        for (int col = last; col <= last + 1; col++) {
+          for (int i = head[row * stride + col]; i >= 0; i = next[i]) {
+            predictBoundaries(i);
+          }
+        }
+      }
+    } else {
+      columns--;
+      for (int row = 0; row < rows; row++) {
+        for (int i = head[row * stride + last], following; i >= 0; i = following) {
+          following = next[i];
+          sync(i);
+          remove(i);
+          insert(i, row * stride + last - 1);
+          // новые соседи — только колонка по другую сторону слитой
+          for (int d = -1; d <= 1; d++) {
+            predictPairsInCell(i, last - 2, row + d, false);
+          }
+        }
+        for (int i = head[row * stride + last - 1]; i >= 0; i = next[i]) {
+          sync(i);
+          predictBoundaries(i);
+        }
+      }
+    }
+    predictGridChange();
+  }
+
+  /** Стенка ушла дальше запаса: номера клеток пересчитываются под более широкую строку. */
+  private void growStride() {
+    int wider = Math.max(stride + 1, stride * 3 / 2);
+    int[] grown = new int[wider * rows];
+    Arrays.fill(grown, -1);
+    for (int row = 0; row < rows; row++) {
+      System.arraycopy(head, row * stride, grown, row * wider, columns);
+    }
+    for (int i = 0; i < size; i++) {
+      cellOf[i] = cellOf[i] / stride * wider + cellOf[i] % stride;
+    }
+    head = grown;
+    stride = wider;
+  }
+
+  /** Момент, когда стенка при текущей скорости пересечёт ближайший край клетки. */
+  private void predictGridChange() {
+    double speed = wallVelocity / scale;
+    gridTau = Double.POSITIVE_INFINITY;
+    if (speed > 0) {
+      gridTau = wallTau + (originX + (columns + 1) * cellEdge - wallX) / speed;
+    } else if (speed < 0 && columns > 1) {
+      gridTau = wallTau + (originX + columns * cellEdge - wallX) / speed;
+    }
+    gridTau = Math.max(gridTau, tau);
+  }
+
+  private double wallAt(double time) {
+    return wallX + wallVelocity / scale * (time - wallTau);
+  }
+
+  private void sync(int i) {
+    double elapsed = tau - localTau[i];
+    if (elapsed != 0) {
+      x[i] += ux[i] * elapsed;
+      y[i] += uy[i] * elapsed;
+      localTau[i] = tau;
+    }
+  }
+
+  // ---------------------------------------------------------------- предсказания
+
+  /**
+   * Переходы через границы клетки и удары о стенки; молекула должна быть синхронизирована. Прежние
+   * граничные события молекулы при этом устаревают.
+   */
+  private void predictBoundaries(int i) {
+    boundaryCount[i]++;
+    int col = cellOf[i] % stride;
+    int row = cellOf[i] / stride;
+
+    if (col == columns - 1) {
+      double closing = ux[i] - wallVelocity / scale;
+      if (closing > 0) {
+        double gap = wallAt(tau) - radius - x[i];
+        schedule(tau + Math.max(gap, 0) / closing, i, WALL_RIGHT);
+      }
+    } else if (ux[i] > 0) {
+      schedule(tau + Math.max(originX + (col + 1) * cellEdge - x[i], 0) / ux[i], i, CROSS_X);
+    }
+    if (ux[i] < 0) {
+      if (col > 0) {
+        schedule(tau + Math.max(x[i] - originX - col * cellEdge, 0) / -ux[i], i, CROSS_X);
+      } else {
+        schedule(tau + Math.max(x[i] - leftPlane, 0) / -ux[i], i, WALL_LEFT);
+      }
+    }
+
+    if (uy[i] > 0) {
+      if (row < rows - 1) {
+        schedule(tau + Math.max(originY + (row + 1) * cellEdge - y[i], 0) / uy[i], i, CROSS_Y);
+      } else {
+        schedule(tau + Math.max(topPlane - y[i], 0) / uy[i], i, WALL_TOP);
+      }
+    } else if (uy[i] < 0) {
+      if (row > 0) {
+        schedule(tau + Math.max(y[i] - originY - row * cellEdge, 0) / -uy[i], i, CROSS_Y);
+      } else {
+        schedule(tau + Math.max(y[i] - bottomPlane, 0) / -uy[i], i, WALL_BOTTOM);
+      }
+    }
+  }
+
+  private void predictPairs(int i, boolean onlyHigher) {
+    int col = cellOf[i] % stride;
+    int row = cellOf[i] / stride;
+    for (int dy = -1; dy <= 1; dy++) {
+      for (int dx = -1; dx <= 1; dx++) {
+        predictPairsInCell(i, col + dx, row + dy, onlyHigher);
+      }
+    }
+  }
+
+  private void predictPairsInCell(int i, int col, int row, boolean onlyHigher) {
+    if (col < 0 || col >= columns || row < 0 || row >= rows) {
+      return;
+    }
+    for (int j = head[row * stride + col]; j >= 0; j = next[j]) {
+      if (j == i || (onlyHigher && j < i)) {
+        continue;
+      }
+      double elapsed = tau - localTau[j];
+      double dx = x[j] + ux[j] * elapsed - x[i];
+      double dy = y[j] + uy[j] * elapsed - y[i];
+      double dvx = ux[j] - ux[i];
+      double dvy = uy[j] - uy[i];
+      double b = dx * dvx + dy * dvy;
+      if (b >= 0) {
+        continue;
+      }
+      double v2 = dvx * dvx + dvy * dvy;
+      double c = dx * dx + dy * dy - contact2;
+      double discriminant = b * b - v2 * c;
+      if (discriminant < 0) {
+        continue;
+      }
+      double t = c <= 0 ? 0 : c / (-b + Math.sqrt(discriminant));
+      schedule(tau + t, i, j);
+    }
+  }
+
+  // ---------------------------------------------------------------- клетки
+
+  private int cellOf(double px, double py) {
+    int col = (int) ((px - originX) / cellEdge);
+    int row = (int) ((py - originY) / cellEdge);
+    col = Math.max(0, Math.min(columns - 1, col));
+    row = Math.max(0, Math.min(rows - 1, row));
+    return row * stride + col;
+  }
+
+  private void insert(int i, int cell) {
+    cellOf[i] = cell;
+    prev[i] = -1;
+    next[i] = head[cell];
+    if (head[cell] >= 0) {
+      prev[head[cell]] = i;
+    }
+    head[cell] = i;
+  }
+
+  private void remove(int i) {
+    if (prev[i] >= 0) {
+      next[prev[i]] = next[i];
+    } else {
+      head[cellOf[i]] = next[i];
+    }
+    if (next[i] >= 0) {
+      prev[next[i]] = prev[i];
+    }
+  }
+
+  // ---------------------------------------------------------------- очередь
+
+  private void schedule(double time, int a, int b) {
+    if (heapSize == eventTime.length) {
+      int capacity = eventTime.length * 2;
+      eventTime = Arrays.copyOf(eventTime, capacity);
+      eventA = Arrays.copyOf(eventA, capacity);
+      eventB = Arrays.copyOf(eventB, capacity);
+      eventCountA = Arrays.copyOf(eventCountA, capacity);
+      eventCountB = Arrays.copyOf(eventCountB, capacity);
+    }
+    int slot = heapSize++;
+    while (slot > 0) {
+      int parent = (slot - 1) >>> 1;
+      if (eventTime[parent] <= time) {
+        break;
+      }
+      move(parent, slot);
+      slot = parent;
+    }
+    eventTime[slot] = time;
+    eventA[slot] = a;
+    eventB[slot] = b;
+    eventCountA[slot] = count[a];
+    eventCountB[slot] = b >= 0 ? count[b] : boundaryCount[a];
+  }
+
+  private boolean isValid(int a, int b, int countA, int countB) {
+    return count[a] == countA && countB == (b >= 0 ? count[b] : boundaryCount[a]);
+  }
+
+  private void pop() {
+    poppedTime = eventTime[0];
+    poppedA = eventA[0];
+    poppedB = eventB[0];
+    poppedCountA = eventCountA[0];
+    poppedCountB = eventCountB[0];
+    heapSize--;
+    if (heapSize > 0) {
+      siftDown(heapSize, 0);
+    }
+  }
+
+  /** Ставит событие из слота {@code from} на место {@code slot} и опускает его вниз. */
+  private void siftDown(int from, int slot) {
+    double time = eventTime[from];
+    int a = eventA[from];
+    int b = eventB[from];
+    int countA = eventCountA[from];
+    int countB = eventCountB[from];
+    int half = heapSize >>> 1;
+    while (slot < half) {
+      int child = 2 * slot + 1;
+      if (child + 1 < heapSize && eventTime[child + 1] < eventTime[child]) {
+        child++;
+      }
+      if (eventTime[child] >= time) {
+        break;
+      }
+      move(child, slot);
+      slot = child;
+    }
+    eventTime[slot] = time;
+    eventA[slot] = a;
+    eventB[slot] = b;
+    eventCountA[slot] = countA;
+    eventCountB[slot] = countB;
+  }
+
+  private void move(int from, int to) {
+    eventTime[to] = eventTime[from];
+    eventA[to] = eventA[from];
+    eventB[to] = eventB[from];
+    eventCountA[to] = eventCountA[from];
+    eventCountB[to] = eventCountB[from];
+  }
+
+  /** Выбрасывает устаревшие события и заново строит кучу. */
+  private void compact() {
+    int kept = 0;
+    for (int e = 0; e < heapSize; e++) {
+      if (isValid(eventA[e], eventB[e], eventCountA[e], eventCountB[e])) {
+        move(e, kept++);
+      }
+    }
+    heapSize = kept;
+    for (int slot = (heapSize >>> 1) - 1; slot >= 0; slot--) {
+      siftDown(slot, slot);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package org.mipt;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Рисует {@link DensityMap} одной текстурой: пиксель на блок, растянутый на его размер в мире.
+ * Текстура обновляется только при смене снимка, стоимость кадра — O(блоков).
+ */
+public class HeatmapRenderer implements Disposable {
+  // Опорные цвета шкал (r, g, b): плотность от чёрного через фиолетовый и оранжевый к жёлтому,
+  // температура от синего через белый к красному
+  private static final float[][] DENSITY_COLORS = {
+    {0, 0, 0}, {0.35f, 0.05f, 0.45f}, {0.9f, 0.35f, 0.1f}, {1, 1, 0.6f}
+  };
+  private static final float[][] TEMPERATURE_COLORS = {{0.1f, 0.2f, 0.9f}, {1, 1, 1}, {0.9f, 0.1f, 0.1f}};
+
+  // Верх шкал: втрое выше средней плотности и вдвое выше опорной температуры
+  private static final float DENSITY_RANGE = 3;
+  private static final float TEMPERATURE_RANGE = 2;
+
+  private Pixmap pixmap;
+  private Texture texture;
+  private DensityMap drawnMap;
+  private long drawnStep = -1;
+  private boolean drawnTemperature;
+
+  /**
+   * @param meanDensity средняя плотность, молекул на м², середина шкалы плотности
+   * @param referenceTemp середина температурной шкалы, К
+   */
+  public void draw(
+      SpriteBatch batch,
+      DensityMap map,
+      long step,
+      boolean temperature,
+      double meanDensity,
+      double referenceTemp,
+      float renderScale) {
+    int columns = map.getColumns();
+    int rows = map.getRows();
+    if (pixmap == null || pixmap.getWidth() != columns || pixmap.getHeight() != rows) {
+      dispose();
+      pixmap = new Pixmap(columns, rows, Pixmap.Format.RGBA8888);
+      texture = new Texture(pixmap);
+      texture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+      drawnStep = -1;
+    }
+
+    if (map != drawnMap || step != drawnStep || temperature != drawnTemperature) {
+      for (int row = 0; row < rows; row++) {
+        // у Pixmap строки идут сверху вниз
+        int y = rows - 1 - row;
+        for (int col = 0; col < columns; col++) {
+          int color;
+          if (temperature) {
+            float value = map.getTemperature(col, row);
+            color =
+                Float.isNaN(value)
+                    ? 0x000000FF
+                    : colorAt(TEMPERATURE_COLORS, value / (float) (TEMPERATURE_RANGE * referenceTemp));
+          } else {
+            color =
+                colorAt(
+                    DENSITY_COLORS,
+                    map.getDensity(col, row) / (float) (DENSITY_RANGE * meanDensity));
+          }
+          pixmap.drawPixel(col, y, color);
+        }
+      }
+      texture.draw(pixmap, 0, 0);
+      drawnMap = map;
+      drawnStep = step;
+      drawnTemperature = temperature;
+    }
+
+    batch.begin();
+    batch.draw(
+        texture,
+        map.getOriginX() * renderScale,
+        map.getOriginY() * renderScale,
+        columns * map.getBlockEdge() * renderScale,
+        rows * map.getBlockEdge() * renderScale);
+    batch.end();
+  }
+
+  /** Цвет RGBA8888 в точке {@code t} из [0, 1] кусочно-линейной шкалы. */
+  private static int colorAt(float[][] stops, float t) {
+    t = Math.max(0, Math.min(1, t)) * (stops.length - 1);
+    int i = Math.min((int) t, stops.length - 2);
+    float f = t - i;
+    int r = (int) (255 * (stops[i][0] + (stops[i + 1][0] - stops[i][0]) * f));
+    int g = (int) (255 * (stops[i][1] + (stops[i + 1][1] - stops[i][1]) * f));
+    int b = (int) (255 * (stops[i][2] + (stops[i + 1][2] - stops[i][2]) * f));
+    return (r << 24) | (g << 16) | (b << 8) | 0xFF;
+  }
+
+  @Override
+  public void dispose() {
+    if (texture != null) {
+      texture.dispose();
+      texture = null;
+    }
+    if (pixmap != null) {
+      pixmap.dispose();
+      pixmap = null;
+    }
+  }
+}
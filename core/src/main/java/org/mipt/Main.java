@@ -2,81 +2,130 @@
 
     import com.badlogic.gdx.ApplicationAdapter;
     import com.badlogic.gdx.Gdx;
+    import com.badlogic.gdx.Input;
     import com.badlogic.gdx.InputAdapter;
     import com.badlogic.gdx.files.FileHandle;
     import com.badlogic.gdx.graphics.Color;
     import com.badlogic.gdx.graphics.GL20;
     import com.badlogic.gdx.graphics.OrthographicCamera;
+    import com.badlogic.gdx.graphics.g2d.BitmapFont;
     import com.badlogic.gdx.graphics.g2d.SpriteBatch;
     import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
     import com.badlogic.gdx.math.MathUtils;
+    import com.badlogic.gdx.math.Matrix4;
     import com.badlogic.gdx.math.Vector2;
     import com.badlogic.gdx.utils.viewport.FillViewport;
-    import com.google.gson.Gson;
-    import org.mipt.entity.Molecule;
     import org.mipt.entity.SimulationConfig;
 
     import java.io.IOException;
+    import java.nio.file.Path;
+    import java.util.Locale;
 
     public class Main extends ApplicationAdapter {
-        private Physics physics;
-        private PhysicsLogger logger;
+        private SimulationDriver driver;
+        private SimulationThread simulation;
+        private HeatmapRenderer heatmap;
+
+        /** Что рисовать: отдельные молекулы или поля по блокам клеток; переключается клавишей D. */
+        private enum RenderMode {
+            MOLECULES,
+            DENSITY,
+            TEMPERATURE
+        }
+
+        private RenderMode renderMode = RenderMode.MOLECULES;
+        private ObservablesLog log;
+        private CheckpointWriter checkpoints;
+        private final Path restartFrom;
+        private StepProfiler profiler;
+
+        // строка производительности по клавише H: скорость считается по шагам снимков примерно за секунду
+        private boolean hudVisible;
+        private BitmapFont font;
+        private final Matrix4 screenProjection = new Matrix4();
+        private long hudStep = -1;
+        private long hudNanos;
+        private String hudRate = "";
 
         private static final float WORLD_HEIGHT = 600;
         private static final float WORLD_WIDTH = 1000;
 
         private static final float RENDER_SCALE = 1E9f;
 
-        private static final float FIXED_TIME_STEP = 0.01f;
-        private boolean beginToIncreaseArea = false;
-
-        // Во сколько раз расширяемся перед началом изобарного сжатия
-        private static final float EXPANSION_FACTOR = 2.0f;
-
-        // Флаг изобарной фазы (сжатие + охлаждение)
-        private boolean beginCompression = false;
-
-        // Стартовые параметры изобарного процесса
-        private double isobaricStartTemp;
-        private double isobaricStartArea;
-
-        // Начальная ширина сосуда (для того чтобы вернуться в исходное состояние)
-        private float initialWidth;
-
         private OrthographicCamera camera;
         private SpriteBatch batch;
         private ShapeRenderer shapeRenderer;
         private SimulationConfig config;
         private FillViewport viewport;
-        private float accumulator = 0f;
-        private int thermostatSteps = 0;
+        private final Vector2 position = new Vector2();
+        private final Vector2 bondDirection = new Vector2();
+        private final Vector2 atom1Pos = new Vector2();
+        private final Vector2 atom2Pos = new Vector2();
+
+        public Main() {
+            this(null);
+        }
+
+        /** @param restartFrom контрольная точка, с которой продолжить, или {@code null} */
+        public Main(Path restartFrom) {
+            this.restartFrom = restartFrom;
+        }
 
         @Override
         public void create() {
-            Gson gson = new Gson();
             FileHandle file = Gdx.files.internal("config/simulation.json");
-            SimulationConfig config = gson.fromJson(file.reader(), SimulationConfig.class);
+            SimulationConfig config = SimulationConfig.fromJson(file.reader());
             camera = new OrthographicCamera();
             viewport = new FillViewport(WORLD_WIDTH, WORLD_HEIGHT, camera);
             camera.position.set(WORLD_WIDTH / 2f, WORLD_HEIGHT / 2f, 0);
             this.config = config;
 
-            initialWidth = config.vessel.width();
-
             batch = new SpriteBatch();
             shapeRenderer = new ShapeRenderer();
+            heatmap = new HeatmapRenderer();
+            font = new BitmapFont();
 
-            Molecule[] molecules = new Molecule[config.simulation.numberOfMolecules()];
-
-            physics = new Physics(config, molecules);
-            physics.fillGrid();
             try {
-                logger = new PhysicsLogger("dataset");
+                if (restartFrom != null) {
+                    try (Checkpoint checkpoint = Checkpoint.read(restartFrom, config)) {
+                        driver = checkpoint.restore(config);
+                    }
+                } else {
+                    driver = SimulationDriver.create(config);
+                }
+                // после рестарта не затираем журнал прерванного запуска
+                String logName = restartFrom != null ? "dataset_" + driver.getStep() + ".obs" : "dataset.obs";
+                log = ObservablesLog.attach(driver, Path.of(logName), config.simulation.logStride());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+            if (config.simulation.checkpointStride() > 0) {
+                checkpoints = new CheckpointWriter(config, Path.of("checkpoint.bin"), config.simulation.checkpointStride());
+                driver.addListener(checkpoints);
+            }
+            if (config.simulation.profileStride() > 0) {
+                profiler = new StepProfiler(config.simulation.profileStride(), System.out::println);
+                driver.setProfiler(profiler);
+            }
+            // моделирование идёт в своём потоке, кадр только рисует последний снимок
+            simulation = new SimulationThread(driver, config);
+            simulation.start();
             Gdx.input.setInputProcessor(
                     new InputAdapter() {
+                        @Override
+                        public boolean keyDown(int keycode) {
+                            if (keycode == Input.Keys.H) {
+                                hudVisible = !hudVisible;
+                                return true;
+                            }
+                            if (keycode != Input.Keys.D) {
+                                return false;
+                            }
+                            renderMode = RenderMode.values()[(renderMode.ordinal() + 1) % RenderMode.values().length];
+                            simulation.setMaps(renderMode == RenderMode.DENSITY, renderMode == RenderMode.TEMPERATURE);
+                            return true;
+                        }
+
                         @Override
                         public boolean touchDragged(int screenX, int screenY, int pointer) {
                             float deltaX = -Gdx.input.getDeltaX() * camera.zoom;
@@ -108,124 +157,86 @@
             shapeRenderer.setProjectionMatrix(camera.combined);
             batch.setProjectionMatrix(camera.combined);
 
-            float dt = config.simulation.timeStep();
-
-            for (int i = 0; i < config.simulation.stepsPerFrame(); i++) {
-
-                // --- Движение стенки ---
-                if (beginCompression) {
-                    // Фаза 3: изобарное сжатие — двигаем стенку обратно (влево)
-                    physics.setWallVelocity(-(float) Math.abs(config.vessel.wallVelocity()));
-                    physics.moveWall(dt);
-                } else if (beginToIncreaseArea) {
-                    // Фаза 2: изотермическое расширение — двигаем стенку вправо
-                    ++thermostatSteps;
-                    physics.setWallVelocity((float) Math.abs(config.vessel.wallVelocity()));
-                    physics.moveWall(dt);
-
-                    // Как только сильно расширились — запускаем изобарное сжатие
-                    if (!beginCompression && physics.getWidth() >= initialWidth * EXPANSION_FACTOR) {
-                        beginCompression = true;
-                        // фиксируем стартовые параметры изобарики
-                        isobaricStartArea = physics.calcArea();
-                        isobaricStartTemp = physics.calcTemp();
-                        thermostatSteps = 0;
-                    }
-                }
-
-                // --- Динамика частиц ---
-                physics.applyPhysics(dt);
-
-                double pressure = physics.calculatePressure(dt);
-                double curTemp = physics.calcTemp();
-                double area = physics.calcArea();
-
-                try {
-                    logger.logPT(pressure, curTemp);
-                    logger.logPV(pressure, area);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-
-                System.out.println("Pressure: " + pressure + " Temp: " + curTemp + " Area: " + area);
-
-                // --- Управление температурой по фазам ---
-
-                // Фаза 1: нагрев при постоянном объёме
-                if (!beginToIncreaseArea && !beginCompression) {
-                    if (curTemp < config.simulation.targetTemp()) {
-                        physics.heatStep(dt * config.simulation.tempRatePerSecond());
-                    } else {
-                        // как только догрели до targetTemp — начинаем расширение
-                        beginToIncreaseArea = true;
-                    }
-                }
-                // Фаза 3: изобарное охлаждение и сжатие
-                else if (beginCompression) {
-                    // T_target = T_start * (V / V_start) для P = const
-                    double targetTemp = isobaricStartTemp * (area / isobaricStartArea);
-                    physics.applyThermostat(targetTemp);
-
-                    // Останавливаемся, когда вернулись к исходной ширине
-                    if (physics.getWidth() <= initialWidth + 1e-9f) {
-                        beginCompression = false;
-                        physics.turnOffWallMoving();
-                    }
-                }
-
-                // Столкновения после обновления скоростей/стенок
-                physics.collisions();
-                physics.handleCollisionsWithWalls();
-
-                // Фаза 2: изотермическое расширение — поддерживаем температуру около targetTemp
-                if (beginToIncreaseArea && !beginCompression) {
-                    if (thermostatSteps > config.simulation.thermostatStepsToApply()) {
-                        physics.applyThermostat(config.simulation.targetTemp());
-                        thermostatSteps = 0;
-                    }
-                }
+            SimulationThread.Snapshot snapshot = simulation.acquire();
+            DensityMap map = snapshot.getDensityMap();
+            if (renderMode != RenderMode.MOLECULES && map != null) {
+                double meanDensity = config.simulation.numberOfMolecules() / ((double) snapshot.getWidth() * config.vessel.height());
+                heatmap.draw(batch, map, snapshot.getStep(), renderMode == RenderMode.TEMPERATURE,
+                        meanDensity, config.simulation.targetTemp(), RENDER_SCALE);
+            } else {
+                drawMolecules(snapshot);
+            }
+            drawVessel(snapshot);
+            if (hudVisible) {
+                drawHud(snapshot);
             }
+        }
 
-            drawVessel();
-            drawMolecules(physics.getMolecules());
+        private void drawHud(SimulationThread.Snapshot snapshot) {
+            long now = System.nanoTime();
+            if (hudStep < 0 || snapshot.getStep() < hudStep) {
+                hudStep = snapshot.getStep();
+                hudNanos = now;
+            } else if (now - hudNanos >= 1_000_000_000L) {
+                double seconds = (now - hudNanos) / 1e9;
+                double stepsPerSecond = (snapshot.getStep() - hudStep) / seconds;
+                double moleculeSteps = stepsPerSecond * config.simulation.numberOfMolecules();
+                hudRate = String.format(Locale.ROOT, "%.1f steps/s, %.1f ns/molecule-step",
+                        stepsPerSecond, moleculeSteps > 0 ? 1e9 / moleculeSteps : Double.NaN);
+                hudStep = snapshot.getStep();
+                hudNanos = now;
+            }
+            StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "step %d, frame %.1f ms",
+                    snapshot.getStep(), Gdx.graphics.getDeltaTime() * 1e3));
+            if (!hudRate.isEmpty()) {
+                text.append(", ").append(hudRate);
+            }
+            if (profiler != null && !profiler.getLastSummary().isEmpty()) {
+                text.append('\n').append(profiler.getLastSummary().replace(" | ", "\n"));
+            }
+            screenProjection.setToOrtho2D(0, 0, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
+            batch.setProjectionMatrix(screenProjection);
+            batch.begin();
+            font.setColor(Color.YELLOW);
+            font.draw(batch, text, 10, Gdx.graphics.getHeight() - 10);
+            batch.end();
         }
 
-        private void drawVessel() {
+        private void drawVessel(SimulationThread.Snapshot snapshot) {
             shapeRenderer.begin(ShapeRenderer.ShapeType.Line);
             shapeRenderer.setColor(Color.WHITE);
             shapeRenderer.rect(
                     config.vessel.position().x * RENDER_SCALE,
                     config.vessel.position().y * RENDER_SCALE,
-                    physics.getWidth() * RENDER_SCALE,
+                    snapshot.getWidth() * RENDER_SCALE,
                     config.vessel.height() * RENDER_SCALE);
             shapeRenderer.end();
         }
 
-        private void drawMolecules(Molecule[] molecules) {
+        private void drawMolecules(SimulationThread.Snapshot snapshot) {
             shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
-            for (int i = 0; i < molecules.length; i += config.simulation.visibleMoleculesStep()) {
-                drawMolecule(molecules[i]);
+            for (int i = 0; i < snapshot.size(); i++) {
+                drawMolecule(snapshot, i);
             }
 
             shapeRenderer.end();
         }
 
-        private void drawMolecule(Molecule molecule) {
-            Vector2 position = molecule.getPosition().cpy().scl(RENDER_SCALE);
-            Vector2 velocity = molecule.getVelocity();
+        private void drawMolecule(SimulationThread.Snapshot snapshot, int i) {
+            position.set(snapshot.getX(i), snapshot.getY(i)).scl(RENDER_SCALE);
 
             float renderDiameter = config.molecule.diameter() * RENDER_SCALE;
             renderDiameter = Math.max(renderDiameter, 3f);
 
             float atomDistance = renderDiameter * 1.2f;
 
-            Vector2 bondDirection = new Vector2(velocity.y, -velocity.x).nor();
+            bondDirection.set(snapshot.getVy(i), -snapshot.getVx(i)).nor();
             if (bondDirection.len() < 0.1f) {
                 bondDirection.set(1, 0).nor();
             }
 
-            Vector2 atom1Pos = new Vector2(position).mulAdd(bondDirection, -atomDistance * 0.5f);
-            Vector2 atom2Pos = new Vector2(position).mulAdd(bondDirection, atomDistance * 0.5f);
+            atom1Pos.set(position).mulAdd(bondDirection, -atomDistance * 0.5f);
+            atom2Pos.set(position).mulAdd(bondDirection, atomDistance * 0.5f);
 
             shapeRenderer.setColor(Color.LIGHT_GRAY);
             shapeRenderer.rectLine(atom1Pos, atom2Pos, renderDiameter * 0.15f);
@@ -242,12 +253,19 @@
 
         @Override
         public void dispose() {
+            simulation.stop();
             try {
-                logger.close();
+                log.close();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+            if (checkpoints != null) {
+                checkpoints.close();
+            }
+            driver.dispose();
+            heatmap.dispose();
             batch.dispose();
+            font.dispose();
             shapeRenderer.dispose();
         }
     }
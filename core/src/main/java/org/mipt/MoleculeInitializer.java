@@ -0,0 +1,239 @@
+package org.mipt;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.mipt.entity.Particles;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Начальная расстановка без перекрытий. Сосуд делится на прямоугольные ячейки со стороной не меньше
+ * размера молекулы, по одной молекуле на ячейку; молекула {@code i} занимает ячейку {@code i * S /
+ * N}, так что при {@code N < S} пустые ячейки разбросаны равномерно. В режиме {@link #LATTICE}
+ * молекула стоит в центре ячейки, в {@link #STRATIFIED} — в случайной точке, из которой она не
+ * выходит за ячейку. В клетку сетки столкновений поэтому попадает ограниченное число молекул.
+ *
+ * <p>Компоненты скоростей нормальные (распределение Максвелла — Больцмана в 2D, преобразование
+ * Бокса — Мюллера); затем снимается дрейф центра масс и скорости масштабируются так, чтобы
+ * температура в точности равнялась {@code temperature}.
+ *
+ * <p>Молекулы генерируются блоками по {@link #BLOCK} с отдельным потоком {@link SplittableRandom}
+ * на блок. Потоки отщепляются от зерна по порядку блоков, и суммы складываются в том же порядке,
+ * поэтому результат не зависит от числа потоков и одинаков при записи в хранилище и через {@link
+ * Physics.MoleculeSink}.
+ */
+public final class MoleculeInitializer {
+  /** Прежняя расстановка: равномерно случайная, одинаковые скорости, один {@link Random}. */
+  public static final String RANDOM = "random";
+  /** По центрам ячеек. */
+  public static final String LATTICE = "lattice";
+  /** В случайной точке своей ячейки. */
+  public static final String STRATIFIED = "stratified";
+
+  static final int BLOCK = 1 << 16;
+
+  private final int count;
+  private final boolean jitter;
+  private final float originX;
+  private final float originY;
+  private final int columns;
+  private final long strata;
+  private final float strideX;
+  private final float strideY;
+  // отступ центра от края ячейки и разброс внутри неё
+  private final float inset;
+  private final float spanX;
+  private final float spanY;
+  private final double sigma;
+  private final double targetSquares;
+  private final SplittableRandom[] streams;
+
+  private MoleculeInitializer(SimulationConfig config, long seed, int count) {
+    String placement = config.simulation.placement();
+    if (!LATTICE.equals(placement) && !STRATIFIED.equals(placement)) {
+      throw new IllegalArgumentException("Unknown placement: " + placement);
+    }
+    this.count = count;
+    this.jitter = STRATIFIED.equals(placement);
+    this.originX = config.vessel.position().x;
+    this.originY = config.vessel.position().y;
+    float width = config.vessel.width();
+    float height = config.vessel.height();
+    float size = config.molecule.diameter() + 2 * config.molecule.halfBoundLength();
+
+    this.columns = (int) Math.max(1, Math.ceil(Math.sqrt((double) count * width / height)));
+    int rows = Math.max(1, (count + columns - 1) / columns);
+    this.strata = (long) columns * rows;
+    this.strideX = width / columns;
+    this.strideY = height / rows;
+    if (strideX < size || strideY < size) {
+      throw new IllegalArgumentException(
+          count + " molecules do not fit into the vessel without overlap: cell "
+              + Math.min(strideX, strideY) + " m is smaller than molecule size " + size + " m");
+    }
+    this.inset = size / 2;
+    this.spanX = strideX - size;
+    this.spanY = strideY - size;
+
+    double mass = config.molecule.mass();
+    this.sigma = Math.sqrt(Physics.k * config.simulation.temperature() / mass);
+    // сумма квадратов скоростей, при которой 1/2 m sum v^2 = N k T
+    this.targetSquares = 2.0 * count * Physics.k * config.simulation.temperature() / mass;
+
+    int blocks = (count + BLOCK - 1) / BLOCK;
+    this.streams = new SplittableRandom[blocks];
+    SplittableRandom root = new SplittableRandom(seed);
+    for (int b = 0; b < blocks; b++) {
+      streams[b] = root.split();
+    }
+  }
+
+  /** Режим по имени из настроек; {@code null} — старый {@link #RANDOM}. */
+  public static boolean isLegacy(String placement) {
+    return placement == null || RANDOM.equals(placement);
+  }
+
+  /**
+   * Заполняет все молекулы {@code particles} параллельно на общем пуле потоков. {@code seed == 0}
+   * означает случайное зерно.
+   */
+  public static void initialize(SimulationConfig config, long seed, Particles particles) {
+    if (seed == 0) {
+      seed = new SplittableRandom().nextLong();
+    }
+    MoleculeInitializer initializer = new MoleculeInitializer(config, seed, particles.size());
+    int blocks = initializer.streams.length;
+    double[] sums = new double[3 * blocks];
+    ForkJoinPool.commonPool()
+        .invoke(
+            new BlockTask(
+                0,
+                blocks,
+                b ->
+                    initializer.generate(
+                        b,
+                        sums,
+                        (i, x, y, vx, vy) -> {
+                          particles.setPosition(i, x, y);
+                          particles.setVelocity(i, vx, vy);
+                        })));
+    Correction correction = initializer.correction(sums);
+    ForkJoinPool.commonPool()
+        .invoke(
+            new BlockTask(
+                0,
+                blocks,
+                b -> {
+                  int to = Math.min(initializer.count, (b + 1) * BLOCK);
+                  for (int i = b * BLOCK; i < to; i++) {
+                    correction.apply(particles, i);
+                  }
+                }));
+  }
+
+  /**
+   * Отдаёт {@code count} молекул в {@code sink} по порядку номеров в вызывающем потоке, со
+   * скоростями до поправки; её нужно потом применить к оставленным молекулам. Так ранг
+   * распределённого счёта проходит всю расстановку и берёт себе свою полосу.
+   */
+  public static Correction generate(
+      SimulationConfig config, long seed, int count, Physics.MoleculeSink sink) {
+    MoleculeInitializer initializer = new MoleculeInitializer(config, seed, count);
+    double[] sums = new double[3 * initializer.streams.length];
+    for (int b = 0; b < initializer.streams.length; b++) {
+      initializer.generate(b, sums, sink);
+    }
+    return initializer.correction(sums);
+  }
+
+  private void generate(int block, double[] sums, Physics.MoleculeSink sink) {
+    SplittableRandom random = streams[block];
+    int to = Math.min(count, (block + 1) * BLOCK);
+    double sumVx = 0;
+    double sumVy = 0;
+    double squares = 0;
+    for (int i = block * BLOCK; i < to; i++) {
+      long stratum = i * strata / count;
+      int column = (int) (stratum % columns);
+      int row = (int) (stratum / columns);
+      float x = originX + column * strideX + inset;
+      float y = originY + row * strideY + inset;
+      if (jitter) {
+        x += (float) random.nextDouble() * spanX;
+        y += (float) random.nextDouble() * spanY;
+      } else {
+        x += spanX / 2;
+        y += spanY / 2;
+      }
+
+      double radius = sigma * Math.sqrt(-2 * Math.log(1 - random.nextDouble()));
+      double angle = 2 * Math.PI * random.nextDouble();
+      float vx = (float) (radius * Math.cos(angle));
+      float vy = (float) (radius * Math.sin(angle));
+      sumVx += vx;
+      sumVy += vy;
+      squares += (double) vx * vx + (double) vy * vy;
+      sink.accept(i, x, y, vx, vy);
+    }
+    sums[3 * block] = sumVx;
+    sums[3 * block + 1] = sumVy;
+    sums[3 * block + 2] = squares;
+  }
+
+  private Correction correction(double[] sums) {
+    double sumVx = 0;
+    double sumVy = 0;
+    double squares = 0;
+    for (int b = 0; b < streams.length; b++) {
+      sumVx += sums[3 * b];
+      sumVy += sums[3 * b + 1];
+      squares += sums[3 * b + 2];
+    }
+    if (count < 2) {
+      return new Correction(0, 0, squares > 0 ? Math.sqrt(targetSquares / squares) : 1);
+    }
+    double driftX = sumVx / count;
+    double driftY = sumVy / count;
+    double relative = squares - count * (driftX * driftX + driftY * driftY);
+    return new Correction(driftX, driftY, relative > 0 ? Math.sqrt(targetSquares / relative) : 1);
+  }
+
+  /** Снятие дрейфа и масштаб скоростей: {@code v' = (v - drift) * scale}. */
+  public record Correction(double driftX, double driftY, double scale) {
+    public void apply(Particles particles, int i) {
+      particles.setVelocity(
+          i,
+          (float) ((particles.getVx(i) - driftX) * scale),
+          (float) ((particles.getVy(i) - driftY) * scale));
+    }
+  }
+
+  private interface BlockAction {
+    void run(int block);
+  }
+
+  private static final class BlockTask extends RecursiveAction {
+    private final int from;
+    private final int to;
+    private final BlockAction action;
+
+    BlockTask(int from, int to, BlockAction action) {
+      this.from = from;
+      this.to = to;
+      this.action = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new BlockTask(from, middle, action), new BlockTask(middle, to, action));
+        return;
+      }
+      for (int b = from; b < to; b++) {
+        action.run(b);
+      }
+    }
+  }
+}
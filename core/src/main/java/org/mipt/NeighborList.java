@@ -0,0 +1,109 @@
+package org.mipt;
+
+import java.util.Arrays;
+import org.mipt.entity.Particles;
+
+/**
+ * Списки Верле: для каждой молекулы {@code i} — номера {@code j > i}, центры которых при
+ * построении были ближе радиуса взаимодействия плюс {@code skin}. Пока ни одна молекула не
+ * сместилась больше чем на {@code skin / 2}, ни одна пара не могла сблизиться из-за пределов
+ * списка, и перестраивать его не нужно. Хранится в формате CSR, как и {@link CellList}.
+ */
+final class NeighborList {
+  private final float skin;
+  private final float[] refX;
+  private final float[] refY;
+  private final int[] start;
+  private int[] neighbors;
+  private boolean valid;
+  private long builds;
+
+  NeighborList(int size, float skin) {
+    this.skin = skin;
+    this.refX = new float[size];
+    this.refY = new float[size];
+    this.start = new int[size + 1];
+    this.neighbors = new int[Math.max(16, 8 * size)];
+  }
+
+  /** Нужна ли перестройка: список сброшен или какая-то молекула ушла дальше {@code skin / 2}. */
+  boolean needsRebuild(Particles particles) {
+    if (!valid) {
+      return true;
+    }
+    float limit2 = skin * skin / 4;
+    for (int i = 0; i < particles.size(); i++) {
+      float dx = particles.getX(i) - refX[i];
+      float dy = particles.getY(i) - refY[i];
+      if (dx * dx + dy * dy > limit2) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Строит списки по свежей сетке; ребро клетки должно быть не меньше радиуса плюс skin. */
+  void build(Particles particles, CellList cells) {
+    int size = particles.size();
+    int columns = cells.getColumns();
+    int rows = cells.getRows();
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      start[i] = count;
+      float xi = particles.getX(i);
+      float yi = particles.getY(i);
+      float reachI = particles.getDiameter(i) / 2 + particles.getHalfBoundLength(i) + skin;
+      int cell = cells.cellOfMolecule(i);
+      int col = cell % columns;
+      int row = cell / columns;
+      for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+        for (int c = Math.max(0, col - 1); c <= Math.min(columns - 1, col + 1); c++) {
+          int neighborCell = r * columns + c;
+          int begin = cells.cellStart(neighborCell);
+          int end = begin + cells.cellCount(neighborCell);
+          for (int slot = begin; slot < end; slot++) {
+            int j = cells.molecule(slot);
+            if (j <= i) {
+              continue;
+            }
+            float dx = particles.getX(j) - xi;
+            float dy = particles.getY(j) - yi;
+            float reach = reachI + particles.getDiameter(j) / 2 + particles.getHalfBoundLength(j);
+            if (dx * dx + dy * dy < reach * reach) {
+              if (count == neighbors.length) {
+                neighbors = Arrays.copyOf(neighbors, 2 * count);
+              }
+              neighbors[count++] = j;
+            }
+          }
+        }
+      }
+      refX[i] = xi;
+      refY[i] = yi;
+    }
+    start[size] = count;
+    valid = true;
+    builds++;
+  }
+
+  /** Сбрасывает список, например после восстановления из контрольной точки. */
+  void invalidate() {
+    valid = false;
+  }
+
+  int start(int molecule) {
+    return start[molecule];
+  }
+
+  int end(int molecule) {
+    return start[molecule + 1];
+  }
+
+  int neighbor(int slot) {
+    return neighbors[slot];
+  }
+
+  long getBuilds() {
+    return builds;
+  }
+}
@@ -0,0 +1,294 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Двоичный журнал наблюдаемых. Записи фиксированной длины (по 8 байт на столбец, все значения —
+ * {@code double}, целые хранятся точно до 2^53) складываются в заранее выделенное кольцо, а фоновый
+ * поток сбрасывает его в файл через {@link FileChannel}. Шагающий поток не форматирует чисел и не
+ * ждёт диска, пока кольцо не переполнено.
+ *
+ * <p>Формат файла (little-endian): {@code int} магическое число, {@code int} версия, {@code int}
+ * число столбцов, для каждого столбца длина имени и имя в UTF-8, затем записи подряд. Недописанная
+ * последняя запись (после аварийного завершения) при чтении отбрасывается.
+ */
+public class ObservablesLog implements AutoCloseable {
+  public static final String[] STEP_COLUMNS = {
+    "step", "time", "pressure", "temperature", "area", "kineticEnergy", "collisions", "timeStep"
+  };
+
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private static final int MAGIC = 0x4D4F4253; // "MOBS"
+  private static final int VERSION = 1;
+  private static final long IDLE_PARK_NANOS = 1_000_000L;
+  private static final long FULL_PARK_NANOS = 10_000L;
+
+  private final FileChannel channel;
+  private final ByteBuffer ring;
+  private final int columns;
+  private final int recordBytes;
+  private final int capacity;
+  private final Thread writer;
+  private final Thread shutdownHook;
+
+  // Сколько записей выложено в кольцо и сколько из них уже в файле
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private volatile boolean closed;
+  private volatile IOException failure;
+
+  public ObservablesLog(Path path, String[] columnNames) throws IOException {
+    this(path, columnNames, DEFAULT_CAPACITY);
+  }
+
+  public ObservablesLog(Path path, String[] columnNames, int capacity) throws IOException {
+    if (columnNames.length == 0 || capacity <= 0) {
+      throw new IllegalArgumentException("Log needs at least one column and a positive capacity");
+    }
+    this.columns = columnNames.length;
+    this.recordBytes = columns * Double.BYTES;
+    this.capacity = capacity;
+    this.ring = ByteBuffer.allocateDirect(capacity * recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+    this.channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    writeHeader(columnNames);
+
+    this.writer = new Thread(this::drain, "observables-writer");
+    writer.setDaemon(true);
+    writer.start();
+    // Дописываем хвост, даже если приложение закрыли без dispose()
+    this.shutdownHook = new Thread(this::closeQuietly, "observables-flush");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  private void writeHeader(String[] columnNames) throws IOException {
+    byte[][] names = new byte[columns][];
+    int size = 3 * Integer.BYTES;
+    for (int c = 0; c < columns; c++) {
+      names[c] = columnNames[c].getBytes(StandardCharsets.UTF_8);
+      size += Integer.BYTES + names[c].length;
+    }
+    ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(VERSION).putInt(columns);
+    for (byte[] name : names) {
+      header.putInt(name.length).put(name);
+    }
+    header.flip();
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+  }
+
+  /**
+   * Кладёт запись в кольцо; значения копируются, массив можно переиспользовать. Блокируется, только
+   * если фоновый поток отстал на целое кольцо.
+   */
+  public void append(double[] values) {
+    if (values.length != columns) {
+      throw new IllegalArgumentException(
+          "Expected " + columns + " values, got " + values.length);
+    }
+    if (closed) {
+      throw new IllegalStateException("Observables log is closed");
+    }
+    long head = published.get();
+    while (head - written.get() >= capacity) {
+      IOException error = failure;
+      if (error != null) {
+        throw new UncheckedIOException(error);
+      }
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(FULL_PARK_NANOS);
+    }
+    int base = (int) (head % capacity) * recordBytes;
+    for (int c = 0; c < columns; c++) {
+      ring.putDouble(base + c * Double.BYTES, values[c]);
+    }
+    published.set(head + 1);
+  }
+
+  private void drain() {
+    try {
+      while (true) {
+        long head = published.get();
+        long tail = written.get();
+        if (head == tail) {
+          // closed выставляется после последней записи, так что повторное чтение видит всё
+          if (closed && published.get() == tail) {
+            break;
+          }
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+          continue;
+        }
+        int from = (int) (tail % capacity);
+        int count = (int) Math.min(head - tail, capacity - from);
+        ByteBuffer chunk = ring.duplicate();
+        chunk.limit((from + count) * recordBytes).position(from * recordBytes);
+        while (chunk.hasRemaining()) {
+          channel.write(chunk);
+        }
+        written.set(tail + count);
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  /** Дожидается, пока фоновый поток сбросит все записи, и закрывает файл. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!channel.isOpen()) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writer);
+    boolean interrupted = false;
+    while (writer.isAlive()) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // уже завершаемся, и нас вызвал сам хук
+    }
+    channel.close();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (IOException e) {
+      System.err.println("Failed to flush observables log: " + e);
+    }
+  }
+
+  /**
+   * Открывает журнал и подписывает его на шаги драйвера: при {@code logStride > 1} пишутся окна
+   * {@link WindowedSampler}, иначе по записи {@link #STEP_COLUMNS} на каждый шаг.
+   */
+  public static ObservablesLog attach(SimulationDriver driver, Path path, int logStride)
+      throws IOException {
+    if (logStride > 1) {
+      ObservablesLog log = new ObservablesLog(path, WindowedSampler.COLUMNS);
+      driver.addListener(new WindowedSampler(log, logStride, driver.getCollisionCount()));
+      return log;
+    }
+    ObservablesLog log = new ObservablesLog(path, STEP_COLUMNS);
+    driver.addListener(stepRecorder(log));
+    return log;
+  }
+
+  /** Слушатель драйвера, пишущий одну запись {@link #STEP_COLUMNS} на каждый шаг. */
+  public static SimulationDriver.StepListener stepRecorder(ObservablesLog log) {
+    double[] record = new double[STEP_COLUMNS.length];
+    return driver -> {
+      record[0] = driver.getStep();
+      record[1] = driver.getTime();
+      record[2] = driver.getPressure();
+      record[3] = driver.getTemperature();
+      record[4] = driver.getArea();
+      record[5] = driver.getKineticEnergy();
+      record[6] = driver.getCollisionCount();
+      record[7] = driver.getTimeStep();
+      log.append(record);
+    };
+  }
+
+  /** Переводит журнал в CSV с заголовком из имён столбцов. */
+  public static void exportCsv(Path path, Writer out) throws IOException {
+    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.flip();
+
+      require(in, buffer, 3 * Integer.BYTES, path);
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException(path + " is not an observables log");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported observables log version " + version + " in " + path);
+      }
+      int columns = buffer.getInt();
+      for (int c = 0; c < columns; c++) {
+        require(in, buffer, Integer.BYTES, path);
+        byte[] name = new byte[buffer.getInt()];
+        require(in, buffer, name.length, path);
+        buffer.get(name);
+        if (c > 0) {
+          out.write(',');
+        }
+        out.write(new String(name, StandardCharsets.UTF_8));
+      }
+      out.write('\n');
+
+      int recordBytes = columns * Double.BYTES;
+      while (fill(in, buffer, recordBytes)) {
+        for (int c = 0; c < columns; c++) {
+          if (c > 0) {
+            out.write(',');
+          }
+          out.write(format(buffer.getDouble()));
+        }
+        out.write('\n');
+      }
+    }
+  }
+
+  private static String format(double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private static void require(FileChannel in, ByteBuffer buffer, int bytes, Path path)
+      throws IOException {
+    if (!fill(in, buffer, bytes)) {
+      throw new IOException("Truncated observables log header in " + path);
+    }
+  }
+
+  /** Дочитывает в буфер, пока в нём не окажется хотя бы {@code bytes} байт; false на конце файла. */
+  private static boolean fill(FileChannel in, ByteBuffer buffer, int bytes) throws IOException {
+    if (buffer.remaining() >= bytes) {
+      return true;
+    }
+    if (bytes > buffer.capacity()) {
+      throw new IOException("Observables log record is larger than the read buffer");
+    }
+    buffer.compact();
+    while (buffer.position() < bytes) {
+      if (in.read(buffer) < 0) {
+        buffer.flip();
+        return false;
+      }
+    }
+    buffer.flip();
+    return true;
+  }
+}
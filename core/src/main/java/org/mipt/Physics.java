@@ -1,344 +1,689 @@
 package org.mipt;
 
-import com.badlogic.gdx.math.Intersector;
-import com.badlogic.gdx.math.Vector2;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import org.mipt.entity.Molecule;
+import org.mipt.entity.Particles;
 import org.mipt.entity.SimulationConfig;
 
-public class Physics {
+public class Physics implements RestorableEngine {
+  /** Отражающие стенки, правая может двигаться. */
+  public static final String WALLS = "walls";
+  /**
+   * Периодические границы: молекула, вышедшая за край, входит с другой стороны, столкновения ищутся
+   * по ближайшему образу, стенок нет, давление считается по вириалу столкновений.
+   */
+  public static final String PERIODIC = "periodic";
+
   private SimulationConfig config;
+  private boolean periodic;
+  private float boxHeight;
   private int gridWidth;
   private int gridHeight;
-  private int[] cellSize;
-  private Molecule[] grid;
+  private CellList cells;
+  private Particles particles;
   private Molecule[] molecules;
   private float epsilon = 0.1f;
-  private final double k = 1.38e-23;
+  public static final double k = 1.38e-23;
   private final double nAvogadro = 6.022E23;
+  // импульс, переданный стенкам; при периодических границах — вириал столкновений sum(r · Δp)
   private double accumulatedImpulse = 0.0;
+  // за какое время набран accumulatedImpulse: удары о стенки в конце шага относятся к его dt
+  private double impulseTime;
+  private float lastTimeStep;
   private float currentWidth;
   private float wallVelocity;
+  private ForkJoinPool collisionPool;
+  private static final int STRIP_ROWS = 2;
+
+  // Кинетическая энергия ведётся по приращениям: удары, движущаяся стенка, масштабирование скоростей.
+  // Раз в KINETIC_ENERGY_RESYNC_STEPS шагов пересчитываем её целиком, чтобы не копилась ошибка.
+  private static final int KINETIC_ENERGY_RESYNC_STEPS = 1000;
+  private double totalKineticEnergy;
+  private int stepsSinceResync;
+  private long collisionCount;
+  private final Tally serialTally = new Tally();
+  private Tally[] stripTallies;
+  // Списки Верле, если в настройках задан skin; иначе null и каждый шаг идёт по клеткам
+  private NeighborList neighbors;
+
+  // Раз в reorderStride шагов молекулы переставляются в памяти по кривой Гильберта через клетки,
+  // чтобы соседи по сетке лежали рядом и проход по клеткам не промахивался мимо кэша
+  private int reorderStride;
+  private int stepsSinceReorder;
+  private int[] order;
+  private long reorders;
+  private long reorderNanos;
+  private long collisionNanos;
+  private long pairTests;
+  // профиль шага, если включён; время разрешения столкновений меряется только в одном потоке
+  private StepProfiler profiler;
+  private boolean timeResolve;
+
+  // импульс и изменение энергии за проход по стенкам
+  private final double[] wallResult = new double[3];
+
+  /** Изменение энергии и число ударов за проход; у каждой полосы свой, чтобы сумма не зависела от потоков. */
+  private static final class Tally {
+    private double kineticEnergy;
+    private long collisions;
+    private long pairs;
+    private long resolveNanos;
+    private double virial;
+  }
 
   public Physics() {}
 
+  /**
+   * Движок с молекулами из конфига. Представления {@link Molecule} создаются, только когда их
+   * попросят через {@link #getMolecules}: при хранилище вне кучи это единственное, что растёт в куче
+   * с числом молекул.
+   */
+  public Physics(SimulationConfig config) {
+    this(config, config.simulation.numberOfMolecules());
+  }
+
+  /** То же, но сразу заполняет {@code molecules} представлениями; длина задаёт число молекул. */
   public Physics(SimulationConfig config, Molecule[] molecules) {
-    this.config = config;
-    this.gridWidth = (int) (config.vessel.width() / (config.molecule.diameter()));
-    this.gridHeight = (int) (config.vessel.height() / (config.molecule.diameter()));
-    this.cellSize = new int[gridHeight * gridWidth];
-    this.grid = new Molecule[gridWidth * gridHeight * config.simulation.clusterSize()];
-    initializeMolecules(molecules);
+    this(config, molecules.length);
+    for (int i = 0; i < molecules.length; i++) {
+      molecules[i] = new Molecule(particles, i);
+    }
     this.molecules = molecules;
+  }
+
+  private Physics(SimulationConfig config, int size) {
+    this.config = config;
+    this.periodic = isPeriodic(config.simulation.boundary());
+    this.boxHeight = config.vessel.height();
+    if (periodic && config.simulation.verletSkin() > 0) {
+      throw new IllegalArgumentException("Periodic boundaries do not support verletSkin");
+    }
+    String storage = config.simulation.storage();
+    float interactionRange =
+        config.molecule.diameter() + 2 * config.molecule.halfBoundLength();
+    float skin = config.simulation.verletSkin() * config.molecule.diameter();
+    if (skin > 0) {
+      // клетка должна вмещать весь радиус списка, чтобы хватало соседних клеток
+      interactionRange += skin;
+      this.neighbors = new NeighborList(size, skin);
+    }
+    this.cells =
+        CellList.create(
+            Particles.isDirect(storage),
+            config.vessel.position().x,
+            config.vessel.position().y,
+            config.vessel.width(),
+            config.vessel.height(),
+            CellList.cellEdge(
+                interactionRange,
+                (double) config.vessel.width() * config.vessel.height(),
+                size,
+                config.simulation.cellOccupancy()),
+            size);
+    if (periodic) {
+      // с меньшим числом клеток поперёк соседняя клетка через край совпала бы с соседней внутри
+      if (cells.getColumns() < 3 || cells.getRows() < 3) {
+        throw new IllegalArgumentException(
+            "Periodic box must be at least 3 cells across, got "
+                + cells.getColumns() + " x " + cells.getRows());
+      }
+    } else {
+      // столбцы следуют за стенкой; память сразу под самое широкое положение в протоколе
+      cells.reserveWidth(config.vessel.width() * SimulationDriver.EXPANSION_FACTOR);
+    }
+    this.gridWidth = cells.getColumns();
+    this.gridHeight = cells.getRows();
+    this.particles = Particles.create(storage, size, config.molecule);
+    initializeMolecules();
     this.epsilon *=  config.molecule.diameter() / 2;
     this.currentWidth = config.vessel.width();
     this.wallVelocity = 0;
+    if (config.simulation.collisionThreads() > 0) {
+      this.collisionPool = new ForkJoinPool(config.simulation.collisionThreads());
+    }
+    this.totalKineticEnergy = particles.totalKineticEnergy();
+    this.reorderStride = config.simulation.reorderStride();
+    if (reorderStride > 0) {
+      this.order = new int[size];
+    }
+  }
+
+  /** Останавливает потоки столкновений и освобождает хранилище; после этого движок не шагает. */
+  public void dispose() {
+    if (collisionPool != null) {
+      collisionPool.shutdown();
+    }
+    particles.close();
+    cells.close();
   }
 
   public void resetImpulse() {
     this.accumulatedImpulse = 0.0;
+    this.impulseTime = 0;
   }
 
   public double getAccumulatedImpulse(){
       double val = accumulatedImpulse;
       accumulatedImpulse = 0.0;
+      impulseTime = 0;
       return val;
   }
 
-  private void initializeMolecules(Molecule[] molecules) {
-    Random random = new Random();
+  /**
+   * Периодические ли границы {@code boundary} из настроек: {@link #PERIODIC} или {@link #WALLS}
+   * (и {@code null}).
+   */
+  public static boolean isPeriodic(String boundary) {
+    if (boundary == null || boundary.equals(WALLS)) {
+      return false;
+    }
+    if (boundary.equals(PERIODIC)) {
+      return true;
+    }
+    throw new IllegalArgumentException("Unknown boundary: " + boundary);
+  }
 
-    for (int i = 0; i < molecules.length; i++) {
-      float margin = config.molecule.diameter() * 5;
-      Vector2 position =
-          new Vector2(
-              margin + random.nextFloat() * (config.vessel.width() - 2 * margin),
-              margin + random.nextFloat() * (config.vessel.height() - 2 * margin));
+  private void initializeMolecules() {
+    initializeMolecules(config, particles);
+  }
 
-      float initialSpeed = calculateInitialSpeed();
-      float angle = random.nextFloat() * 2 * (float) Math.PI;
-      Vector2 velocity =
-          new Vector2(
-              (float) Math.cos(angle) * initialSpeed, (float) Math.sin(angle) * initialSpeed);
+  /** Расстановка по {@code placement} из настроек, см. {@link MoleculeInitializer}. */
+  static void initializeMolecules(SimulationConfig config, Particles particles) {
+    long seed = config.simulation.seed();
+    if (!MoleculeInitializer.isLegacy(config.simulation.placement())) {
+      MoleculeInitializer.initialize(config, seed, particles);
+      return;
+    }
+    initializeMolecules(
+        config,
+        seed != 0 ? new Random(seed) : new Random(),
+        particles.size(),
+        (i, x, y, vx, vy) -> {
+          particles.setPosition(i, x, y);
+          particles.setVelocity(i, vx, vy);
+        });
+  }
 
-      float kineticEnergy = 0.5f * config.molecule.mass() * velocity.len2();
+  /** Получает начальное состояние очередной молекулы. */
+  public interface MoleculeSink {
+    void accept(int i, float x, float y, float vx, float vy);
+  }
 
-      molecules[i] = new Molecule(config.molecule, velocity, kineticEnergy, position);
+  /**
+   * Начальная расстановка {@code count} молекул по порядку номеров. Последовательность зависит
+   * только от {@code random}, поэтому её можно пройти целиком и оставить себе часть молекул.
+   */
+  public static void initializeMolecules(
+      SimulationConfig config, Random random, int count, MoleculeSink sink) {
+    float margin = config.molecule.diameter() * 5;
+    float initialSpeed = calculateInitialSpeed(config);
+    for (int i = 0; i < count; i++) {
+      float x = margin + random.nextFloat() * (config.vessel.width() - 2 * margin);
+      float y = margin + random.nextFloat() * (config.vessel.height() - 2 * margin);
+      float angle = random.nextFloat() * 2 * (float) Math.PI;
+      sink.accept(
+          i, x, y, (float) Math.cos(angle) * initialSpeed, (float) Math.sin(angle) * initialSpeed);
     }
   }
 
-  private float calculateInitialSpeed() {
+  private static float calculateInitialSpeed(SimulationConfig config) {
     double mass = config.molecule.mass();
     double speed = Math.sqrt(2 * k * config.simulation.temperature() / mass);
     return (float) speed;
   }
 
   public void applyPhysics(float dt) {
-    for (Molecule molecule : molecules) {
-      float x = molecule.getPosition().x;
-      float y = molecule.getPosition().y;
-      molecule.setPosition(
-          new Vector2(x + molecule.getVelocity().x * dt, y + molecule.getVelocity().y * dt));
+    particles.integrate(dt);
+    lastTimeStep = dt;
+    if (periodic) {
+      particles.wrap(config.vessel.position().x, config.vessel.position().y, currentWidth, boxHeight);
     }
   }
 
   public void fillGrid() {
-    for (int i = 0; i < molecules.length; i++) {
-      int x = (int) (molecules[i].getPosition().x / (config.molecule.diameter()));
-      int y = (int) (molecules[i].getPosition().y / (config.molecule.diameter()));
+    cells.rebuild(particles);
+  }
 
-      if (x < 0) {
-        x = 0;
-      } else if (x >= gridWidth) {
-        x = gridWidth - 1;
-      }
-      if (y < 0) {
-        y = 0;
-      } else if (y >= gridHeight) {
-        y = gridHeight - 1;
-      }
+  public void collisions() {
+    long start = System.nanoTime();
+    long pairsBefore = pairTests;
+    long collisionsBefore = collisionCount;
+    stepsSinceReorder++;
+    if (neighbors != null) {
+      neighborListCollisions();
+    } else {
+      updateGrid();
+      reorderIfDue();
+      stripCollisions();
+    }
 
-      int cell = y * gridWidth + x;
-      int countMoleculesInCell = cellSize[cell];
+    if (++stepsSinceResync >= KINETIC_ENERGY_RESYNC_STEPS) {
+      resyncKineticEnergy();
+    }
+    collisionNanos += System.nanoTime() - start;
+    if (profiler != null) {
+      profiler.count(StepProfiler.Counter.PAIRS_TESTED, pairTests - pairsBefore);
+      profiler.count(StepProfiler.Counter.COLLISIONS, collisionCount - collisionsBefore);
+    }
+  }
 
-      if (countMoleculesInCell < config.simulation.clusterSize()) {
-        int slot = cell * config.simulation.clusterSize() + countMoleculesInCell;
-        grid[slot] = molecules[i];
-        cellSize[cell] = countMoleculesInCell + 1;
-      } else {
-        System.out.println(i);
-        throw new RuntimeException(
-            "Bad starting distribution. Try to increase cell capacity or rearrange molecules");
+  /**
+   * Если подошёл срок, переставляет молекулы в порядке обхода клеток по кривой Гильберта и
+   * перестраивает сетку под новые номера. Сетка должна быть свежей.
+   */
+  private void reorderIfDue() {
+    if (reorderStride <= 0 || stepsSinceReorder < reorderStride) {
+      return;
+    }
+    long start = System.nanoTime();
+    int slot = 0;
+    for (int cell : cells.hilbertOrder()) {
+      int begin = cells.cellStart(cell);
+      int end = begin + cells.cellCount(cell);
+      for (int j = begin; j < end; j++) {
+        order[slot++] = cells.molecule(j);
       }
     }
+    particles.permute(order);
+    // не через updateGrid: номера сменились, и переходы между клетками не считаются
+    cells.rebuild(particles);
+    stepsSinceReorder = 0;
+    reorders++;
+    long nanos = System.nanoTime() - start;
+    reorderNanos += nanos;
+    if (profiler != null) {
+      profiler.add(StepProfiler.Section.GRID, nanos);
+    }
   }
 
-  public void collisions() {
-    updateGrid();
+  /** Время в {@link #collisions} с начала моделирования, нс, вместе с перестановками. */
+  public long getCollisionNanos() {
+    return collisionNanos;
+  }
 
-    int cols = gridWidth;
-    int rows = gridHeight;
-    int cells = gridHeight * gridWidth;
-
-    for (int i = 0; i < cells; i++) {
-      int row = i / cols;
-      int col = i % cols;
-
-      for (int j = 0; j < cellSize[i]; j++) {
-        // текущая клетка
-        for (int k = j + 1; k < cellSize[i]; k++) {
-          Molecule a = grid[i * config.simulation.clusterSize() + j];
-          Molecule b = grid[i * config.simulation.clusterSize() + k];
-          if (isColliding(a, b)) resolveCollision(a, b);
-        }
+  /** Сколько раз молекулы переставлялись по кривой Гильберта. */
+  public long getReorders() {
+    return reorders;
+  }
 
-        Molecule a = grid[i * config.simulation.clusterSize() + j];
+  /** Время на перестановки, нс; входит в {@link #getCollisionNanos}. */
+  public long getReorderNanos() {
+    return reorderNanos;
+  }
 
-        // правая клетка
-        if (col + 1 < cols) {
-          for (int k = 0; k < cellSize[i + 1]; k++) {
-            Molecule b = grid[(i + 1) * config.simulation.clusterSize() + k];
-            if (isColliding(a, b)) resolveCollision(a, b);
-          }
-        }
+  /**
+   * Проход по спискам Верле; сетка перестраивается только вместе со списками. Идёт в одном потоке:
+   * пары из списков не разбиваются на независимые полосы, как клетки.
+   */
+  private void neighborListCollisions() {
+    if (neighbors.needsRebuild(particles)) {
+      updateGrid();
+      // списки хранят номера молекул, поэтому переставлять можно только перед их перестройкой
+      reorderIfDue();
+      long start = System.nanoTime();
+      neighbors.build(particles, cells);
+      if (profiler != null) {
+        profiler.add(StepProfiler.Section.GRID, System.nanoTime() - start);
+      }
+    }
+    resetTally(serialTally);
+    int size = particles.size();
+    for (int a = 0; a < size; a++) {
+      int end = neighbors.end(a);
+      serialTally.pairs += end - neighbors.start(a);
+      for (int slot = neighbors.start(a); slot < end; slot++) {
+        int b = neighbors.neighbor(slot);
+        if (isColliding(a, b)) resolveCollision(a, b, serialTally);
+      }
+    }
+    addTally(serialTally);
+  }
 
-        // нижняя клетка
-        if (row + 1 < rows) {
-          for (int k = 0; k < cellSize[i + cols]; k++) {
-            Molecule b = grid[(i + cols) * config.simulation.clusterSize() + k];
-            if (isColliding(a, b)) resolveCollision(a, b);
-          }
-        }
+  /** Сколько раз перестраивались списки Верле; 0, если режим выключен. */
+  public long getNeighborListBuilds() {
+    return neighbors != null ? neighbors.getBuilds() : 0;
+  }
 
-        // правая-нижняя клетка
-        if (col + 1 < cols && row + 1 < rows) {
-          for (int k = 0; k < cellSize[i + cols + 1]; k++) {
-            Molecule b = grid[(i + cols + 1) * config.simulation.clusterSize() + k];
-            if (isColliding(a, b)) resolveCollision(a, b);
-          }
-        }
+  private static void resetTally(Tally tally) {
+    tally.kineticEnergy = 0;
+    tally.collisions = 0;
+    tally.pairs = 0;
+    tally.resolveNanos = 0;
+    tally.virial = 0;
+  }
 
-        // правая-верхняя клетка
-        if (col + 1 < cols && row - 1 >= 0) {
-          for (int k = 0; k < cellSize[i - cols + 1]; k++) {
-            Molecule b = grid[(i - cols + 1) * config.simulation.clusterSize() + k];
-            if (isColliding(a, b)) resolveCollision(a, b);
-          }
-        }
-      }
+  private void addTally(Tally tally) {
+    totalKineticEnergy += tally.kineticEnergy;
+    collisionCount += tally.collisions;
+    pairTests += tally.pairs;
+    accumulatedImpulse += tally.virial;
+    if (timeResolve) {
+      profiler.add(StepProfiler.Section.RESOLVE, tally.resolveNanos);
     }
   }
 
-  private void updateGrid() {
-    for (int i = 0; i < gridWidth * gridHeight; i++) {
-      for (int j = 0; j < cellSize[i]; j++) {
-        int x =
-            (int)
-                (grid[i * config.simulation.clusterSize() + j].getPosition().x
-                    / (config.molecule.diameter()));
-        int y =
-            (int)
-                (grid[i * config.simulation.clusterSize() + j].getPosition().y
-                    / (config.molecule.diameter()));
-
-        if (x < 0) {
-          x = 0;
-        }
-        if (y < 0) {
-          y = 0;
-        }
-        if (x >= gridWidth) {
-          x = gridWidth - 1;
-        }
-        if (y >= gridHeight) {
-          y = gridHeight - 1;
-        }
+  /** Сколько пар молекул проверено на столкновение с начала моделирования. */
+  public long getPairTests() {
+    return pairTests;
+  }
 
-        if (y * gridWidth + x != i
-            && cellSize[y * gridWidth + x] < config.simulation.clusterSize()) {
-          int cell = y * gridWidth + x;
-          grid[cell * config.simulation.clusterSize() + cellSize[cell]++] =
-              grid[i * config.simulation.clusterSize() + j];
-          grid[i * config.simulation.clusterSize() + j] =
-              grid[i * config.simulation.clusterSize() + --cellSize[i]];
-          j--;
+  /**
+   * Включает профиль шага ({@code null} — выключает). Движок добавляет в него время сетки и
+   * разрешения столкновений (последнее — только без {@code collisionThreads}) и счётчики пар,
+   * столкновений, ударов о стенки и переходов между клетками.
+   */
+  @Override
+  public void setProfiler(StepProfiler profiler) {
+    this.profiler = profiler;
+    this.timeResolve = profiler != null && collisionPool == null;
+  }
+
+  public void resyncKineticEnergy() {
+    totalKineticEnergy = particles.totalKineticEnergy();
+    stepsSinceResync = 0;
+  }
+
+  /**
+   * Сетка режется на горизонтальные полосы по {@link #STRIP_ROWS} строки. Полушаблон клетки задевает
+   * только соседние строки, поэтому полосы одного цвета (чётные или нечётные) не делят молекул и
+   * обрабатываются параллельно, а цвета идут друг за другом. Без {@code collisionThreads} те же
+   * полосы проходятся по очереди в том же порядке цветов, а счета полос складываются в том же
+   * порядке, так что результат один и тот же при любом {@code collisionThreads}, включая 0. При
+   * периодических границах пары через верхний и нижний край связывают первую и последнюю полосы,
+   * которые могут быть одного цвета, поэтому они обрабатываются после цветов в одном потоке.
+   */
+  private void stripCollisions() {
+    int stripRows = STRIP_ROWS;
+    int strips = (gridHeight + stripRows - 1) / stripRows;
+    if (stripTallies == null || stripTallies.length != strips) {
+      stripTallies = new Tally[strips];
+      for (int strip = 0; strip < strips; strip++) {
+        stripTallies[strip] = new Tally();
+      }
+    }
+    for (int color = 0; color < 2; color++) {
+      if (collisionPool != null) {
+        collisionPool.invoke(new StripTask(color, (strips - color + 1) / 2, stripRows));
+      } else {
+        for (int strip = color; strip < strips; strip += 2) {
+          collideStrip(strip, stripRows);
         }
       }
     }
+    for (Tally tally : stripTallies) {
+      addTally(tally);
+    }
+    if (periodic) {
+      resetTally(serialTally);
+      collideSeam(serialTally);
+      addTally(serialTally);
+    }
   }
 
-  private boolean isColliding(Molecule first, Molecule second) {
-    Vector2 a1 =
-        first.getPosition().cpy().sub(first.getDirection().cpy().scl(first.getHalfBoundLength()));
-    Vector2 a2 =
-        first.getPosition().cpy().add(first.getDirection().cpy().scl(first.getHalfBoundLength()));
-    Vector2 b1 =
-        second
-            .getPosition()
-            .cpy()
-            .sub(second.getDirection().cpy().scl(second.getHalfBoundLength()));
-    Vector2 b2 =
-        second
-            .getPosition()
-            .cpy()
-            .add(second.getDirection().cpy().scl(second.getHalfBoundLength()));
+  private class StripTask extends RecursiveAction {
+    private final int color;
+    private final int from;
+    private final int to;
+    private final int stripRows;
 
-    float dist = distanceBetweenSegments(a1, a2, b1, b2);
-    return dist < ((first.getDiameter() + second.getDiameter()) / 2);
-  }
+    StripTask(int color, int count, int stripRows) {
+      this(color, 0, count, stripRows);
+    }
 
-  private float distanceBetweenSegments(Vector2 a1, Vector2 a2, Vector2 b1, Vector2 b2) {
-    if (Intersector.intersectSegments(a1, a2, b1, b2, null)) {
-      return 0;
+    private StripTask(int color, int from, int to, int stripRows) {
+      this.color = color;
+      this.from = from;
+      this.to = to;
+      this.stripRows = stripRows;
     }
 
-    float d1 = Intersector.distanceSegmentPoint(a1, a2, b1);
-    float d2 = Intersector.distanceSegmentPoint(a1, a2, b2);
-    float d3 = Intersector.distanceSegmentPoint(b1, b2, a1);
-    float d4 = Intersector.distanceSegmentPoint(b1, b2, a2);
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(
+            new StripTask(color, from, middle, stripRows),
+            new StripTask(color, middle, to, stripRows));
+        return;
+      }
+      for (int strip = from; strip < to; strip++) {
+        collideStrip(2 * strip + color, stripRows);
+      }
+    }
+  }
 
-    return Math.min(Math.min(d1, d2), Math.min(d3, d4));
+  /** Полоса {@code strip}: её строки клетка за клеткой, в собственный счёт полосы. */
+  private void collideStrip(int strip, int stripRows) {
+    Tally tally = stripTallies[strip];
+    resetTally(tally);
+    int firstRow = strip * stripRows;
+    int lastRow = Math.min(firstRow + stripRows, gridHeight);
+    for (int i = firstRow * gridWidth; i < lastRow * gridWidth; i++) {
+      if (periodic) {
+        collidePeriodicCell(i, tally, true, false);
+      } else {
+        collideCell(i, tally);
+      }
+    }
   }
 
-  private void resolveCollision(Molecule first, Molecule second) {
-    Vector2 v1 = first.getVelocity();
-    Vector2 v2 = second.getVelocity();
+  private void collideCell(int i, Tally tally) {
+    int cols = gridWidth;
+    int rows = gridHeight;
+    int row = i / cols;
+    int col = i % cols;
+
+    int begin = cells.cellStart(i);
+    int end = begin + cells.cellCount(i);
+    for (int j = begin; j < end; j++) {
+      int a = cells.molecule(j);
+
+      // текущая клетка
+      tally.pairs += end - j - 1;
+      for (int k = j + 1; k < end; k++) {
+        int b = cells.molecule(k);
+        if (isColliding(a, b)) resolveCollision(a, b, tally);
+      }
 
-    Vector2 center1 = first.getPosition();
-    Vector2 center2 = second.getPosition();
+      // правая клетка
+      if (col + 1 < cols) {
+        collideWithCell(a, i + 1, tally);
+      }
 
-    Vector2 normal = center2.cpy().sub(center1).nor();
+      // нижняя клетка
+      if (row + 1 < rows) {
+        collideWithCell(a, i + cols, tally);
+      }
 
-    Vector2 relativeVelocity = v2.cpy().sub(v1);
-    float velocityAlongNormal = relativeVelocity.dot(normal);
+      // правая-нижняя клетка
+      if (col + 1 < cols && row + 1 < rows) {
+        collideWithCell(a, i + cols + 1, tally);
+      }
 
-    if (velocityAlongNormal > 0) {
-      return;
+      // правая-верхняя клетка
+      if (col + 1 < cols && row - 1 >= 0) {
+        collideWithCell(a, i - cols + 1, tally);
+      }
     }
+  }
 
-    float m1 = first.getMass();
-    float m2 = second.getMass();
-
-    float impulseScalar = -2 * velocityAlongNormal / (1 / m1 + 1 / m2);
-    Vector2 impulse = normal.cpy().scl(impulseScalar);
+  /**
+   * Полушаблон клетки с заворотом через края ящика: сосед за краем берётся с другой стороны сетки, а
+   * его молекулы — в образе, сдвинутом на период. При ребре клетки не меньше радиуса взаимодействия
+   * и хотя бы трёх клетках поперёк это и есть ближайший образ. {@code inner} — пары внутри клетки,
+   * по соседям внутри сетки и через левый и правый край, {@code seam} — через верхний и нижний.
+   */
+  private void collidePeriodicCell(int i, Tally tally, boolean inner, boolean seam) {
+    int cols = gridWidth;
+    int rows = gridHeight;
+    int row = i / cols;
+    int col = i % cols;
+    int right = col + 1 < cols ? col + 1 : 0;
+    float rightShift = col + 1 < cols ? 0 : currentWidth;
+    boolean downWraps = row + 1 == rows;
+    int down = (downWraps ? 0 : row + 1) * cols;
+    float downShift = downWraps ? boxHeight : 0;
+    boolean upWraps = row == 0;
+    int up = (upWraps ? rows - 1 : row - 1) * cols;
+    float upShift = upWraps ? -boxHeight : 0;
+    boolean withDown = downWraps ? seam : inner;
+    boolean withUp = upWraps ? seam : inner;
+
+    int begin = cells.cellStart(i);
+    int end = begin + cells.cellCount(i);
+    for (int j = begin; j < end; j++) {
+      int a = cells.molecule(j);
+      if (inner) {
+        tally.pairs += end - j - 1;
+        for (int k = j + 1; k < end; k++) {
+          int b = cells.molecule(k);
+          if (isColliding(a, b)) resolveCollision(a, b, 0, 0, tally);
+        }
+        collideWithCell(a, row * cols + right, rightShift, 0, tally);
+      }
+      if (withDown) {
+        collideWithCell(a, down + col, 0, downShift, tally);
+        collideWithCell(a, down + right, rightShift, downShift, tally);
+      }
+      if (withUp) {
+        collideWithCell(a, up + right, rightShift, upShift, tally);
+      }
+    }
+  }
 
-    Vector2 v1New = v1.cpy().sub(impulse.cpy().scl(1 / m1));
-    Vector2 v2New = v2.cpy().add(impulse.cpy().scl(1 / m2));
+  /** Пары через верхний и нижний край: из первой и последней строк; порядок один при любых потоках. */
+  private void collideSeam(Tally tally) {
+    for (int i = 0; i < gridWidth; i++) {
+      collidePeriodicCell(i, tally, false, true);
+    }
+    for (int i = (gridHeight - 1) * gridWidth; i < gridHeight * gridWidth; i++) {
+      collidePeriodicCell(i, tally, false, true);
+    }
+  }
 
-    first.setVelocity(v1New);
-    second.setVelocity(v2New);
-    first.updateKineticEnergy();
-    second.updateKineticEnergy();
+  private void collideWithCell(int a, int cell, float shiftX, float shiftY, Tally tally) {
+    int begin = cells.cellStart(cell);
+    int end = begin + cells.cellCount(cell);
+    tally.pairs += end - begin;
+    for (int k = begin; k < end; k++) {
+      int b = cells.molecule(k);
+      if (CollisionKernel.isColliding(particles, a, b, shiftX, shiftY)) {
+        resolveCollision(a, b, shiftX, shiftY, tally);
+      }
+    }
   }
 
-  public void handleCollisionsWithWalls() {
-    for (Molecule molecule : molecules) {
-      Vector2 position = molecule.getPosition();
-      Vector2 velocity = molecule.getVelocity();
-
-      if (position.x < config.vessel.position().x + epsilon
-          || position.x + epsilon > config.vessel.position().x + currentWidth) {
-
-        double impulseX;
-
-        if (position.x < config.vessel.position().x + epsilon) {
-          position.x = config.vessel.position().x + epsilon;
-          velocity.x = -velocity.x;
-          impulseX = 2.0 * molecule.getMass() * Math.abs(velocity.x);
-        } else {
-          float vxRel = (velocity.x - wallVelocity);
-          impulseX = 0;
-          if (vxRel > 0) {
-            vxRel = -vxRel;
-            velocity.x = (float) (vxRel + wallVelocity);
-            impulseX += 2 * molecule.getMass() * Math.abs(vxRel);
-          }
-
-          position.x = config.vessel.position().x + currentWidth - epsilon;
-        }
+  private void collideWithCell(int a, int cell, Tally tally) {
+    int begin = cells.cellStart(cell);
+    int end = begin + cells.cellCount(cell);
+    tally.pairs += end - begin;
+    for (int k = begin; k < end; k++) {
+      int b = cells.molecule(k);
+      if (isColliding(a, b)) resolveCollision(a, b, tally);
+    }
+  }
 
-        accumulatedImpulse += impulseX;
-      }
+  private void updateGrid() {
+    if (profiler == null) {
+      cells.rebuild(particles);
+      return;
+    }
+    long start = System.nanoTime();
+    cells.rebuild(particles);
+    profiler.add(StepProfiler.Section.GRID, System.nanoTime() - start);
+    profiler.count(StepProfiler.Counter.CELL_MIGRATIONS, cells.getMigrations());
+    profiler.count(StepProfiler.Counter.CROWDED_CELLS, cells.getCrowdedCells());
+  }
 
-      if (position.y < config.vessel.position().y + epsilon
-          || position.y + epsilon > config.vessel.position().y + config.vessel.height()) {
-        velocity.y = -velocity.y;
+  private boolean isColliding(int first, int second) {
+    return CollisionKernel.isColliding(particles, first, second);
+  }
 
-        double impulseY = 2.0 * molecule.getMass() * Math.abs(velocity.y);
-        accumulatedImpulse += impulseY;
+  private void resolveCollision(int first, int second, Tally tally) {
+    long start = timeResolve ? System.nanoTime() : 0;
+    double before = particles.kineticEnergy(first) + particles.kineticEnergy(second);
+    if (CollisionKernel.resolveCollision(particles, first, second)) {
+      tally.kineticEnergy +=
+          particles.kineticEnergy(first) + particles.kineticEnergy(second) - before;
+      tally.collisions++;
+    }
+    if (timeResolve) {
+      tally.resolveNanos += System.nanoTime() - start;
+    }
+  }
 
-        if (position.y < config.vessel.position().y + epsilon) {
-          position.y = config.vessel.position().y + epsilon;
-        } else {
-          position.y = config.vessel.position().y + config.vessel.height() - epsilon;
-        }
-      }
+  /**
+   * Удар с образом молекулы {@code second}; добавляет в счёт вириал {@code r · Δp} пары. Импульс
+   * идёт вдоль линии центров, а {@code r} берётся в момент касания, а не найденного перекрытия:
+   * иначе вириал и давление выходят заниженными.
+   */
+  private void resolveCollision(int first, int second, float shiftX, float shiftY, Tally tally) {
+    long start = timeResolve ? System.nanoTime() : 0;
+    double before = particles.kineticEnergy(first) + particles.kineticEnergy(second);
+    float vx = particles.getVx(second);
+    float vy = particles.getVy(second);
+    if (CollisionKernel.resolveCollision(particles, first, second, shiftX, shiftY)) {
+      tally.kineticEnergy +=
+          particles.kineticEnergy(first) + particles.kineticEnergy(second) - before;
+      tally.collisions++;
+      double dx = particles.getX(second) + shiftX - particles.getX(first);
+      double dy = particles.getY(second) + shiftY - particles.getY(first);
+      double toContact =
+          CollisionKernel.contactDistance(particles, first, second, shiftX, shiftY)
+              / Math.sqrt(dx * dx + dy * dy);
+      tally.virial +=
+          particles.getMass(second)
+              * toContact
+              * (dx * (particles.getVx(second) - vx) + dy * (particles.getVy(second) - vy));
+    }
+    if (timeResolve) {
+      tally.resolveNanos += System.nanoTime() - start;
     }
   }
 
-  public double calculatePressure(float deltaTime) {
-    double totalImpulse = 0;
-    for (Molecule molecule : molecules) {
-      Vector2 position = molecule.getPosition();
-      Vector2 velocity = molecule.getVelocity();
-      double mass = molecule.getMass();
+  public void handleCollisionsWithWalls() {
+    if (periodic) {
+      // стенок нет, но вириал набирается за те же шаги
+      impulseTime += lastTimeStep;
+      return;
+    }
+    float left = config.vessel.position().x + epsilon;
+    float right = config.vessel.position().x + currentWidth - epsilon;
+    float bottom = config.vessel.position().y + epsilon;
+    float top = config.vessel.position().y + config.vessel.height() - epsilon;
+
+    wallResult[0] = 0;
+    wallResult[1] = 0;
+    wallResult[2] = 0;
+    particles.reflectWalls(left, right, bottom, top, wallVelocity, wallResult);
+    accumulatedImpulse += wallResult[0];
+    impulseTime += lastTimeStep;
+    totalKineticEnergy += wallResult[1];
+    if (profiler != null) {
+      profiler.count(StepProfiler.Counter.WALL_HITS, (long) wallResult[2]);
+    }
+  }
 
-      if (position.x < config.vessel.position().x + epsilon
-          || position.x + epsilon > config.vessel.position().x + currentWidth) {
-        if (position.x < config.vessel.position().x + epsilon) {
-          totalImpulse += 2 * mass * Math.abs(velocity.x);
-        } else {
-            float vxRel = (velocity.x - wallVelocity);
-            if (vxRel > 0) {
-                totalImpulse += 2 * mass * Math.abs(vxRel);
-            }
-        }
-      }
+  /**
+   * Давление по импульсу, переданному стенкам в последних проходах {@link
+   * #handleCollisionsWithWalls} за шаги, которые им предшествовали; накопленный импульс при этом
+   * обнуляется. При периодических границах — по теореме вириала для двумерного газа: {@code P A =
+   * N k T + sum(r · Δp) / (2 Δt)}, где сумма по столкновениям за те же шаги.
+   */
+  public double calculatePressure() {
+    double totalImpulse = accumulatedImpulse;
+    double deltaTime = impulseTime;
+    accumulatedImpulse = 0;
+    impulseTime = 0;
+    if (deltaTime <= 0) {
+      return 0;
+    }
 
-      if (position.y < config.vessel.position().y + epsilon
-          || position.y + epsilon > config.vessel.position().y + config.vessel.height()) {
-        totalImpulse += 2 * mass * Math.abs(velocity.y);
-      }
+    if (periodic) {
+      // N k T в 2D — это кинетическая энергия
+      return (totalKineticEnergy + totalImpulse / (2 * deltaTime)) / calcArea();
     }
 
     double totalForce = totalImpulse / deltaTime;
@@ -352,11 +697,7 @@ public class Physics {
   }
 
   public double calcTemp() {
-      double totalKE = 0;
-      for (Molecule molecule : molecules) {
-          totalKE += 0.5 * molecule.getMass() * molecule.getVelocity().len2();
-      }
-      return totalKE / ( molecules.length * k );
+      return totalKineticEnergy / (particles.size() * k);
   }
 
   public double calcArea() {
@@ -367,20 +708,44 @@ public class Physics {
     double currentTemp = calcTemp();
     double nextTemp = currentTemp + deltaTemp;
     double c = Math.sqrt(nextTemp / currentTemp);
-    for (Molecule molecule : molecules) {
-        Vector2 v = molecule.getVelocity();
-        molecule.setVelocity(v.scl((float) c));
-    }
+    scaleVelocities((float) c);
   }
 
   public void moveWall(double dt)  {
       currentWidth += (float) (wallVelocity * dt);
+      resizeGrid();
+  }
+
+  /**
+   * Подгоняет столбцы сетки под текущую ширину. Если раскладка поменялась, клетки сразу
+   * перестраиваются: со списками Верле сетка иначе ждала бы их перестройки, а карта плотности
+   * читала бы старые клетки.
+   *
+   * @return перестроена ли сетка
+   */
+  private boolean resizeGrid() {
+    if (!cells.resize(currentWidth)) {
+      return false;
+    }
+    gridWidth = cells.getColumns();
+    updateGrid();
+    return true;
   }
 
   public Molecule[] getMolecules() {
+    if (molecules == null) {
+      molecules = new Molecule[particles.size()];
+      for (int i = 0; i < molecules.length; i++) {
+        molecules[i] = new Molecule(particles, i);
+      }
+    }
     return molecules;
   }
 
+  public Particles getParticles() {
+    return particles;
+  }
+
   public float getWidth() {
       return currentWidth;
   }
@@ -403,11 +768,71 @@ public class Physics {
       if (Math.abs(currentTemp - targetTemp) <= 0.01) return;
 
       double scale = Math.sqrt(targetTemp / currentTemp);
-      for (Molecule molecule : molecules) {
-          Vector2 v = molecule.getVelocity();
-          v.scl((float) scale);
-          molecule.setVelocity(v);
-      }
+      scaleVelocities((float) scale);
+  }
+
+  private void scaleVelocities(float scale) {
+    particles.scaleVelocities(scale);
+    totalKineticEnergy *= (double) scale * scale;
+  }
+
+  public CellList getCells() {
+    return cells;
+  }
+
+  public float getWallVelocity() {
+    return wallVelocity;
+  }
+
+  public double getWallImpulse() {
+    return accumulatedImpulse;
+  }
+
+  public double getWallImpulseTime() {
+    return impulseTime;
+  }
+
+  public void restore(
+      Particles state,
+      float width,
+      float wallVelocity,
+      double wallImpulse,
+      double wallImpulseTime,
+      long collisionCount,
+      double kineticEnergy,
+      int kineticEnergyAge) {
+    particles.copyFrom(state);
+    this.currentWidth = width;
+    this.wallVelocity = wallVelocity;
+    this.accumulatedImpulse = wallImpulse;
+    this.impulseTime = wallImpulseTime;
+    this.collisionCount = collisionCount;
+    if (Double.isNaN(kineticEnergy)) {
+      resyncKineticEnergy();
+    } else {
+      // приращения и срок пересчёта продолжаются с того же места, что и в непрерывном счёте
+      totalKineticEnergy = kineticEnergy;
+      stepsSinceResync = kineticEnergyAge;
+    }
+    if (!resizeGrid()) {
+      updateGrid();
+    }
+    if (neighbors != null) {
+      neighbors.invalidate();
+    }
+  }
+
+  public double getKineticEnergy() {
+    return totalKineticEnergy;
+  }
+
+  @Override
+  public int getKineticEnergyAge() {
+    return stepsSinceResync;
+  }
+
+  public long getCollisionCount() {
+    return collisionCount;
   }
 
 }
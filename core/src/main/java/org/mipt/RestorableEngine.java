@@ -0,0 +1,33 @@
+package org.mipt;
+
+import org.mipt.entity.Particles;
+
+/**
+ * Движок, состояние которого целиком лежит в одном процессе и может быть сохранено в {@link
+ * Checkpoint} и восстановлено из неё. Распределённый {@link org.mipt.distributed.SlabEngine} держит
+ * на каждом ранге только свою полосу, поэтому этот интерфейс не реализует.
+ */
+public interface RestorableEngine extends SimulationEngine {
+  /**
+   * Сколько шагов назад {@link #getKineticEnergy} пересчитывалась целиком; между пересчётами она
+   * ведётся приращениями. Движки, которые ведут её иначе, возвращают 0.
+   */
+  default int getKineticEnergyAge() {
+    return 0;
+  }
+
+  /**
+   * Восстанавливает состояние из контрольной точки: молекулы копируются из {@code state}, сетка
+   * клеток перестраивается заново. Кинетическая энергия и её возраст берутся как сохранены, чтобы
+   * продолжение совпало с непрерывным счётом; {@code NaN} (старые точки) — пересчитать по молекулам.
+   */
+  void restore(
+      Particles state,
+      float width,
+      float wallVelocity,
+      double wallImpulse,
+      double wallImpulseTime,
+      long collisionCount,
+      double kineticEnergy,
+      int kineticEnergyAge);
+}
@@ -0,0 +1,413 @@
+package org.mipt;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.mipt.entity.Molecule;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Шаг моделирования и протокол фаз (нагрев, изотермическое расширение, изобарное сжатие) без
+ * привязки к рендеру: используется и окном libGDX, и консольным запуском.
+ *
+ * <p>При {@code blockSteps > 0} каждая фаза кончается выдержкой: стенка стоит, термостат держит
+ * температуру конца фазы, а {@link EquilibriumMonitor} ждёт равновесия и набирает {@code
+ * sampleBlocks} блоков; только потом начинается следующая фаза. Состояние монитора в контрольную
+ * точку не пишется, и после рестарта посреди выдержки она начинается заново.
+ *
+ * <p>При периодических границах ({@code boundary = "periodic"}) объём постоянен: после нагрева
+ * вторая фаза только держит {@code targetTemp}, стенка не движется, и сжатие не начинается.
+ */
+public class SimulationDriver {
+  // Во сколько раз расширяемся перед началом изобарного сжатия
+  public static final float EXPANSION_FACTOR = 2.0f;
+
+  // Во сколько раз адаптивный шаг может вырасти за один шаг; уменьшается он сразу
+  public static final float MAX_STEP_GROWTH = 1.25f;
+
+  public enum Phase {
+    HEATING,
+    ISOTHERMAL_EXPANSION,
+    ISOBARIC_COMPRESSION,
+    // выдержка после фазы: ждём равновесия, затем набираем блоки
+    EQUILIBRATION,
+    SAMPLING
+  }
+
+  /** Вызывается в конце каждого шага, когда наблюдаемые величины драйвера уже обновлены. */
+  public interface StepListener {
+    void onStep(SimulationDriver driver);
+  }
+
+  private final SimulationConfig config;
+  private final SimulationEngine physics;
+  private final List<StepListener> listeners = new ArrayList<>();
+
+  private boolean beginToIncreaseArea = false;
+
+  // Флаг изобарной фазы (сжатие + охлаждение)
+  private boolean beginCompression = false;
+
+  // Стартовые параметры изобарного процесса
+  private double isobaricStartTemp;
+  private double isobaricStartArea;
+
+  // Начальная ширина сосуда (для того чтобы вернуться в исходное состояние)
+  private final float initialWidth;
+  // периодические границы: стенки нет, объём не меняется
+  private final boolean fixedVolume;
+  private int thermostatSteps = 0;
+
+  // Выдержка после фазы heldPhase; monitor == null, если выдержки выключены
+  private final EquilibriumMonitor monitor;
+  private boolean holding;
+  private Phase heldPhase = Phase.HEATING;
+
+  private long step = 0;
+  private double time = 0;
+  // длительность последнего шага; при maxDisplacement > 0 от неё ограничивается рост следующего
+  private float timeStep;
+  private double pressure;
+  private double temperature;
+  private double area;
+  private double kineticEnergy;
+  private StepProfiler profiler;
+
+  public SimulationDriver(SimulationConfig config, SimulationEngine physics) {
+    this.config = config;
+    this.physics = physics;
+    this.initialWidth = config.vessel.width();
+    this.fixedVolume = Physics.isPeriodic(config.simulation.boundary());
+    this.timeStep = config.simulation.timeStep();
+    this.monitor =
+        config.simulation.blockSteps() > 0
+            ? new EquilibriumMonitor(
+                config.simulation.blockSteps(),
+                config.simulation.equilibriumTolerance(),
+                config.simulation.sampleBlocks())
+            : null;
+  }
+
+  /**
+   * Создаёт движок с молекулами из конфига: {@code "event"} в {@code simulation.engine} выбирает
+   * событийный, всё остальное — шаг по времени.
+   */
+  public static SimulationDriver create(SimulationConfig config) {
+    if ("event".equals(config.simulation.engine())) {
+      Molecule[] molecules = new Molecule[config.simulation.numberOfMolecules()];
+      return new SimulationDriver(config, new EventDrivenPhysics(config, molecules));
+    }
+    Physics physics = new Physics(config);
+    physics.fillGrid();
+    return new SimulationDriver(config, physics);
+  }
+
+  public void addListener(StepListener listener) {
+    listeners.add(listener);
+  }
+
+  /** Включает профиль шага для драйвера и движка; {@code null} выключает. */
+  public void setProfiler(StepProfiler profiler) {
+    this.profiler = profiler;
+    physics.setProfiler(profiler);
+  }
+
+  public StepProfiler getProfiler() {
+    return profiler;
+  }
+
+  private void lap(StepProfiler.Section section) {
+    if (profiler != null) {
+      profiler.lap(section);
+    }
+  }
+
+  /**
+   * Длительность очередного шага. При {@code maxDisplacement > 0} ни одна молекула не должна
+   * сдвинуться относительно стенок больше чем на {@code maxDisplacement} диаметров: {@code dt =
+   * maxDisplacement * d / (v_max + |u|)}, где {@code u} — скорость стенки, если она в этом шаге
+   * движется. Рост за шаг ограничен {@link #MAX_STEP_GROWTH}, начинается всё с {@code timeStep};
+   * если всё стоит, шаг не меняется. Иначе шаг всегда {@code timeStep}.
+   */
+  private float nextTimeStep() {
+    float fraction = config.simulation.maxDisplacement();
+    if (fraction <= 0) {
+      return config.simulation.timeStep();
+    }
+    double wallSpeed =
+        !holding && !fixedVolume && (beginCompression || beginToIncreaseArea)
+            ? Math.abs(config.vessel.wallVelocity())
+            : 0;
+    double speed = physics.getMaxSpeed() + wallSpeed;
+    if (speed <= 0) {
+      return timeStep;
+    }
+    double limit = fraction * config.molecule.diameter() / speed;
+    return (float) Math.min(limit, (double) timeStep * MAX_STEP_GROWTH);
+  }
+
+  public void step() {
+    float dt = nextTimeStep();
+    timeStep = dt;
+    if (profiler != null) {
+      profiler.beginStep();
+    }
+
+    // --- Движение стенки ---
+    if (holding) {
+      ++thermostatSteps;
+    } else if (beginCompression) {
+      // Фаза 3: изобарное сжатие — двигаем стенку обратно (влево)
+      physics.setWallVelocity(-(float) Math.abs(config.vessel.wallVelocity()));
+      physics.moveWall(dt);
+    } else if (beginToIncreaseArea) {
+      // Фаза 2: изотермическое расширение — двигаем стенку вправо
+      ++thermostatSteps;
+      if (!fixedVolume) {
+        physics.setWallVelocity((float) Math.abs(config.vessel.wallVelocity()));
+        physics.moveWall(dt);
+
+        // Как только сильно расширились — запускаем изобарное сжатие
+        if (physics.getWidth() >= initialWidth * EXPANSION_FACTOR) {
+          endPhase(Phase.ISOTHERMAL_EXPANSION);
+        }
+      }
+    }
+
+    lap(StepProfiler.Section.WALL_MOTION);
+
+    // --- Динамика частиц ---
+    physics.applyPhysics(dt);
+    lap(StepProfiler.Section.INTEGRATE);
+
+    pressure = physics.calculatePressure();
+    temperature = physics.calcTemp();
+    area = physics.calcArea();
+    kineticEnergy = physics.getKineticEnergy();
+    lap(StepProfiler.Section.OBSERVABLES);
+
+    ++step;
+    time += dt;
+
+    // --- Управление температурой по фазам ---
+
+    // Выдержка: термостат на температуре конца фазы, пока монитор не наберёт блоки
+    if (holding) {
+      if (thermostatSteps > config.simulation.thermostatStepsToApply()) {
+        physics.applyThermostat(holdTemperature());
+        thermostatSteps = 0;
+      }
+      monitor.add(pressure, temperature);
+      if (monitor.isSampled()) {
+        holding = false;
+        advance(heldPhase);
+      }
+    }
+    // Фаза 1: нагрев при постоянном объёме
+    else if (!beginToIncreaseArea && !beginCompression) {
+      if (temperature < config.simulation.targetTemp()) {
+        physics.heatStep(dt * config.simulation.tempRatePerSecond());
+      } else {
+        // как только догрели до targetTemp — начинаем расширение
+        endPhase(Phase.HEATING);
+      }
+    }
+    // Фаза 3: изобарное охлаждение и сжатие
+    else if (beginCompression) {
+      // T_target = T_start * (V / V_start) для P = const
+      double targetTemp = isobaricStartTemp * (area / isobaricStartArea);
+      physics.applyThermostat(targetTemp);
+
+      // Останавливаемся, когда вернулись к исходной ширине
+      if (physics.getWidth() <= initialWidth + 1e-9f) {
+        endPhase(Phase.ISOBARIC_COMPRESSION);
+      }
+    }
+
+    lap(StepProfiler.Section.THERMOSTAT);
+
+    // Столкновения после обновления скоростей/стенок
+    physics.collisions();
+    lap(StepProfiler.Section.PAIRS);
+    physics.handleCollisionsWithWalls();
+    lap(StepProfiler.Section.WALLS);
+
+    // Фаза 2: изотермическое расширение — поддерживаем температуру около targetTemp
+    if (!holding && beginToIncreaseArea && !beginCompression) {
+      if (thermostatSteps > config.simulation.thermostatStepsToApply()) {
+        physics.applyThermostat(config.simulation.targetTemp());
+        thermostatSteps = 0;
+      }
+    }
+
+    lap(StepProfiler.Section.THERMOSTAT);
+
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).onStep(this);
+    }
+    if (profiler != null) {
+      profiler.lap(StepProfiler.Section.LISTENERS);
+      profiler.endStep(step, physics.getParticles().size());
+    }
+  }
+
+  /** Конец фазы: сразу переход к следующей или, если выдержки включены, выдержка. */
+  private void endPhase(Phase phase) {
+    if (monitor == null) {
+      advance(phase);
+      return;
+    }
+    holding = true;
+    heldPhase = phase;
+    monitor.reset();
+    physics.turnOffWallMoving();
+    thermostatSteps = 0;
+  }
+
+  /** Переход от фазы {@code phase} к следующей. */
+  private void advance(Phase phase) {
+    switch (phase) {
+      case HEATING -> beginToIncreaseArea = true;
+      case ISOTHERMAL_EXPANSION -> {
+        beginCompression = true;
+        // фиксируем стартовые параметры изобарики
+        isobaricStartArea = physics.calcArea();
+        isobaricStartTemp = physics.calcTemp();
+        thermostatSteps = 0;
+      }
+      case ISOBARIC_COMPRESSION -> {
+        beginCompression = false;
+        physics.turnOffWallMoving();
+      }
+      default -> throw new IllegalArgumentException("Not a protocol phase: " + phase);
+    }
+  }
+
+  /** Температура, которую держит выдержка: та, к которой вела закончившаяся фаза. */
+  private double holdTemperature() {
+    if (heldPhase == Phase.ISOBARIC_COMPRESSION) {
+      return isobaricStartTemp * (physics.calcArea() / isobaricStartArea);
+    }
+    return config.simulation.targetTemp();
+  }
+
+  public void run(long steps) {
+    for (long i = 0; i < steps; i++) {
+      step();
+    }
+  }
+
+  /** Шагает, пока физическое время не достигнет {@code time} секунд. */
+  public void runUntil(double time) {
+    while (this.time < time) {
+      step();
+    }
+  }
+
+  public Phase getPhase() {
+    if (holding) {
+      return monitor.isEquilibrated() ? Phase.SAMPLING : Phase.EQUILIBRATION;
+    }
+    if (beginCompression) {
+      return Phase.ISOBARIC_COMPRESSION;
+    }
+    return beginToIncreaseArea ? Phase.ISOTHERMAL_EXPANSION : Phase.HEATING;
+  }
+
+  /**
+   * Фаза, после которой идёт текущая или последняя выдержка; результаты выдержки остаются в {@link
+   * #getEquilibriumMonitor} до начала следующей.
+   */
+  public Phase getHeldPhase() {
+    return heldPhase;
+  }
+
+  /** Монитор выдержек или {@code null}, если они выключены. */
+  public EquilibriumMonitor getEquilibriumMonitor() {
+    return monitor;
+  }
+
+  public SimulationEngine getEngine() {
+    return physics;
+  }
+
+  public long getStep() {
+    return step;
+  }
+
+  public double getTime() {
+    return time;
+  }
+
+  /** Длительность последнего шага, с; до первого шага — {@code timeStep} из настроек. */
+  public float getTimeStep() {
+    return timeStep;
+  }
+
+  public double getPressure() {
+    return pressure;
+  }
+
+  public double getTemperature() {
+    return temperature;
+  }
+
+  public double getArea() {
+    return area;
+  }
+
+  public double getKineticEnergy() {
+    return kineticEnergy;
+  }
+
+  public long getCollisionCount() {
+    return physics.getCollisionCount();
+  }
+
+  /** Флаги и параметры протокола фаз вместе с номером шага, временем и длительностью шага. */
+  record PhaseState(
+      boolean expanding,
+      boolean compressing,
+      double isobaricStartTemp,
+      double isobaricStartArea,
+      int thermostatSteps,
+      long step,
+      double time,
+      float timeStep,
+      boolean holding,
+      Phase heldPhase) {}
+
+  PhaseState getPhaseState() {
+    return new PhaseState(
+        beginToIncreaseArea,
+        beginCompression,
+        isobaricStartTemp,
+        isobaricStartArea,
+        thermostatSteps,
+        step,
+        time,
+        timeStep,
+        holding,
+        heldPhase);
+  }
+
+  void restorePhaseState(PhaseState state) {
+    beginToIncreaseArea = state.expanding();
+    beginCompression = state.compressing();
+    isobaricStartTemp = state.isobaricStartTemp();
+    isobaricStartArea = state.isobaricStartArea();
+    thermostatSteps = state.thermostatSteps();
+    step = state.step();
+    time = state.time();
+    timeStep = state.timeStep();
+    holding = state.holding() && monitor != null;
+    heldPhase = state.heldPhase();
+    if (holding) {
+      monitor.reset();
+      physics.turnOffWallMoving();
+    }
+  }
+
+  public void dispose() {
+    physics.dispose();
+  }
+}
@@ -0,0 +1,80 @@
+package org.mipt;
+
+import org.mipt.entity.Molecule;
+import org.mipt.entity.Particles;
+
+/**
+ * То, что {@link SimulationDriver} требует от движка. Порядок вызовов за шаг задаёт драйвер:
+ * стенка, {@link #applyPhysics}, наблюдаемые, управление температурой, {@link #collisions}, {@link
+ * #handleCollisionsWithWalls}.
+ */
+public interface SimulationEngine {
+  void applyPhysics(float dt);
+
+  void collisions();
+
+  void handleCollisionsWithWalls();
+
+  /**
+   * Давление по импульсу, переданному стенкам с прошлого вызова, делённому на время, за которое он
+   * набран. Это время движок ведёт сам: у шага по времени удары о стенки находятся в конце шага и
+   * попадают в следующий вызов, у событийного — внутри {@link #applyPhysics} того же шага, а при
+   * переменном шаге длительности соседних шагов различаются.
+   */
+  double calculatePressure();
+
+  double calcTemp();
+
+  /** Полная кинетическая энергия, Дж. */
+  double getKineticEnergy();
+
+  /** Наибольшая скорость молекулы, м/с; по ней драйвер выбирает шаг в адаптивном режиме. */
+  default double getMaxSpeed() {
+    return getParticles().maxSpeed();
+  }
+
+  /** Число обработанных столкновений молекул друг с другом с начала моделирования. */
+  long getCollisionCount();
+
+  double calcArea();
+
+  void heatStep(double deltaTemp);
+
+  void applyThermostat(double targetTemp);
+
+  void moveWall(double dt);
+
+  void setWallVelocity(float wallVelocity);
+
+  void turnOffWallMoving();
+
+  float getWidth();
+
+  float getWallVelocity();
+
+  /** Импульс, переданный стенкам и ещё не учтённый в {@link #calculatePressure}. */
+  double getWallImpulse();
+
+  /** За какое время набран {@link #getWallImpulse}, с. */
+  double getWallImpulseTime();
+
+  /**
+   * Сетка клеток, перестроенная на последнем шаге (в режиме списков Верле — при их последней
+   * перестройке), или {@code null}, если движок её не ведёт. Читать можно только между шагами.
+   */
+  CellList getCells();
+
+  /** Состояние всех молекул на текущий момент времени. */
+  Particles getParticles();
+
+  Molecule[] getMolecules();
+
+  /**
+   * Профиль шага, в который движок добавляет то, что видно только изнутри {@link #collisions}:
+   * время сетки и разрешения столкновений и счётчики. По умолчанию движок ничего не добавляет, и
+   * весь проход по парам попадает в {@link StepProfiler.Section#PAIRS}.
+   */
+  default void setProfiler(StepProfiler profiler) {}
+
+  void dispose();
+}
@@ -0,0 +1,222 @@
+package org.mipt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.mipt.entity.Particles;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Шагает драйвер в отдельном потоке и на границах шагов публикует снимки для рендера. Снимков
+ * три: в один пишет моделирование, второй читает рендер, третий лежит готовым. Обмен — одна
+ * атомарная операция, поэтому ни одна сторона не ждёт другую: рендер всегда видит целиком
+ * записанный снимок, а моделирование не копирует новый, пока рендер не забрал предыдущий.
+ *
+ * <p>По запросу рендера в снимок кладутся и поля {@link DensityMap}. Они строятся по сетке
+ * клеток движка; если движок её не ведёт, молекулы раскладываются по собственной сетке на всю
+ * ширину, до которой может отъехать стенка.
+ */
+public class SimulationThread {
+  private static final int INDEX_MASK = 3;
+  private static final int FRESH = 4;
+
+  private final SimulationDriver driver;
+  private final int visibleStep;
+  private final Thread thread;
+  private volatile boolean running;
+  private volatile RuntimeException failure;
+  private volatile boolean densityMap;
+  private volatile boolean temperatureMap;
+  private CellList ownCells;
+
+  private final Snapshot[] buffers = new Snapshot[3];
+  // back трогает только моделирование, front — только рендер
+  private int back = 0;
+  private int front = 1;
+  private final AtomicInteger ready = new AtomicInteger(2);
+
+  public SimulationThread(SimulationDriver driver, SimulationConfig config) {
+    this.driver = driver;
+    // в снимок попадает каждая visibleStep-я молекула
+    this.visibleStep = Math.max(1, config.simulation.visibleMoleculesStep());
+    int size = driver.getEngine().getParticles().size();
+    int visible = (size + this.visibleStep - 1) / this.visibleStep;
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = new Snapshot(visible);
+    }
+    if (driver.getEngine().getCells() == null) {
+      float width = config.vessel.width() * SimulationDriver.EXPANSION_FACTOR;
+      ownCells =
+          CellList.create(
+              config.vessel.position().x,
+              config.vessel.position().y,
+              width,
+              config.vessel.height(),
+              CellList.cellEdge(
+                  config.molecule.diameter(),
+                  (double) width * config.vessel.height(),
+                  size,
+                  config.simulation.cellOccupancy()),
+              size);
+    }
+    fill(buffers[front]);
+    this.thread = new Thread(this::run, "simulation");
+    thread.setDaemon(true);
+  }
+
+  public void start() {
+    running = true;
+    thread.start();
+  }
+
+  private void run() {
+    try {
+      while (running) {
+        driver.step();
+        if ((ready.get() & FRESH) == 0) {
+          fill(buffers[back]);
+          back = ready.getAndSet(back | FRESH) & INDEX_MASK;
+        }
+      }
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+  }
+
+  private void fill(Snapshot snapshot) {
+    snapshot.fill(driver, visibleStep);
+    snapshot.hasMap = densityMap || temperatureMap;
+    if (snapshot.hasMap) {
+      SimulationEngine engine = driver.getEngine();
+      CellList cells = engine.getCells();
+      if (cells == null) {
+        cells = ownCells;
+        cells.rebuild(engine.getParticles());
+      }
+      snapshot.map.update(cells, engine.getParticles(), temperatureMap);
+    }
+  }
+
+  /** Какие поля класть в следующие снимки; вызывается из потока рендера. */
+  public void setMaps(boolean density, boolean temperature) {
+    this.densityMap = density;
+    this.temperatureMap = temperature;
+  }
+
+  /**
+   * Последний опубликованный снимок. Вызывается только из потока рендера; снимок не меняется до
+   * следующего вызова.
+   */
+  public Snapshot acquire() {
+    RuntimeException error = failure;
+    if (error != null) {
+      throw new IllegalStateException("Simulation thread failed", error);
+    }
+    if ((ready.get() & FRESH) != 0) {
+      front = ready.getAndSet(front) & INDEX_MASK;
+    }
+    return buffers[front];
+  }
+
+  /** Останавливает моделирование после текущего шага и дожидается потока. */
+  public void stop() {
+    running = false;
+    boolean interrupted = false;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Состояние на границе шага: видимые молекулы, стенка и наблюдаемые. */
+  public static final class Snapshot {
+    private final float[] x;
+    private final float[] y;
+    private final float[] vx;
+    private final float[] vy;
+    private float width;
+    private long step;
+    private double time;
+    private double pressure;
+    private double temperature;
+    private SimulationDriver.Phase phase;
+    private final DensityMap map = new DensityMap();
+    private boolean hasMap;
+
+    private Snapshot(int size) {
+      this.x = new float[size];
+      this.y = new float[size];
+      this.vx = new float[size];
+      this.vy = new float[size];
+    }
+
+    private void fill(SimulationDriver driver, int visibleStep) {
+      Particles particles = driver.getEngine().getParticles();
+      for (int i = 0, k = 0; k < x.length; i += visibleStep, k++) {
+        x[k] = particles.getX(i);
+        y[k] = particles.getY(i);
+        vx[k] = particles.getVx(i);
+        vy[k] = particles.getVy(i);
+      }
+      width = driver.getEngine().getWidth();
+      step = driver.getStep();
+      time = driver.getTime();
+      pressure = driver.getPressure();
+      temperature = driver.getTemperature();
+      phase = driver.getPhase();
+    }
+
+    public int size() {
+      return x.length;
+    }
+
+    public float getX(int i) {
+      return x[i];
+    }
+
+    public float getY(int i) {
+      return y[i];
+    }
+
+    public float getVx(int i) {
+      return vx[i];
+    }
+
+    public float getVy(int i) {
+      return vy[i];
+    }
+
+    public float getWidth() {
+      return width;
+    }
+
+    public long getStep() {
+      return step;
+    }
+
+    public double getTime() {
+      return time;
+    }
+
+    public double getPressure() {
+      return pressure;
+    }
+
+    public double getTemperature() {
+      return temperature;
+    }
+
+    public SimulationDriver.Phase getPhase() {
+      return phase;
+    }
+
+    /** Поля плотности и температуры или {@code null}, если рендер их не запрашивал. */
+    public DensityMap getDensityMap() {
+      return hasMap ? map : null;
+    }
+  }
+}
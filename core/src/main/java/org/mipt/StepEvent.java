@@ -0,0 +1,99 @@
+package org.mipt;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Событие JFR на каждый шаг с профилем {@link StepProfiler}: длительность шага, время по участкам
+ * и счётчики. Записывается, только если включено в настройках записи, например {@code
+ * -XX:StartFlightRecording} с профилем по умолчанию.
+ */
+@Name("org.mipt.Step")
+@Label("Simulation Step")
+@Category({"MIPT", "Simulation"})
+@Description("One simulation step: time per phase and per-step counters")
+@StackTrace(false)
+final class StepEvent extends Event {
+  @Label("Step")
+  long step;
+
+  @Label("Molecules")
+  int molecules;
+
+  @Label("Wall Motion")
+  @Timespan(Timespan.NANOSECONDS)
+  long wallMotion;
+
+  @Label("Integrate")
+  @Timespan(Timespan.NANOSECONDS)
+  long integrate;
+
+  @Label("Observables")
+  @Timespan(Timespan.NANOSECONDS)
+  long observables;
+
+  @Label("Thermostat")
+  @Timespan(Timespan.NANOSECONDS)
+  long thermostat;
+
+  @Label("Grid")
+  @Description("Cell grid rebuild, reordering and Verlet list builds")
+  @Timespan(Timespan.NANOSECONDS)
+  long grid;
+
+  @Label("Pair Tests")
+  @Timespan(Timespan.NANOSECONDS)
+  long pairs;
+
+  @Label("Resolve Collisions")
+  @Timespan(Timespan.NANOSECONDS)
+  long resolve;
+
+  @Label("Walls")
+  @Timespan(Timespan.NANOSECONDS)
+  long walls;
+
+  @Label("Listeners")
+  @Description("Observables log, checkpoints and other step listeners")
+  @Timespan(Timespan.NANOSECONDS)
+  long listeners;
+
+  @Label("Pairs Tested")
+  long pairsTested;
+
+  @Label("Collisions")
+  long collisions;
+
+  @Label("Wall Hits")
+  long wallHits;
+
+  @Label("Cell Migrations")
+  long cellMigrations;
+
+  @Label("Crowded Cells")
+  long crowdedCells;
+
+  void fill(long step, int molecules, long[] nanos, long[] counts) {
+    this.step = step;
+    this.molecules = molecules;
+    wallMotion = nanos[StepProfiler.Section.WALL_MOTION.ordinal()];
+    integrate = nanos[StepProfiler.Section.INTEGRATE.ordinal()];
+    observables = nanos[StepProfiler.Section.OBSERVABLES.ordinal()];
+    thermostat = nanos[StepProfiler.Section.THERMOSTAT.ordinal()];
+    grid = nanos[StepProfiler.Section.GRID.ordinal()];
+    pairs = nanos[StepProfiler.Section.PAIRS.ordinal()];
+    resolve = nanos[StepProfiler.Section.RESOLVE.ordinal()];
+    walls = nanos[StepProfiler.Section.WALLS.ordinal()];
+    listeners = nanos[StepProfiler.Section.LISTENERS.ordinal()];
+    pairsTested = counts[StepProfiler.Counter.PAIRS_TESTED.ordinal()];
+    collisions = counts[StepProfiler.Counter.COLLISIONS.ordinal()];
+    wallHits = counts[StepProfiler.Counter.WALL_HITS.ordinal()];
+    cellMigrations = counts[StepProfiler.Counter.CELL_MIGRATIONS.ordinal()];
+    crowdedCells = counts[StepProfiler.Counter.CROWDED_CELLS.ordinal()];
+  }
+}
@@ -0,0 +1,195 @@
+package org.mipt;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Профиль шага: время по участкам ({@link Section}) и счётчики ({@link Counter}). Драйвер
+ * отмечает конец каждого своего участка через {@link #lap}; время сетки и разрешения столкновений
+ * движок меряет сам внутри {@code collisions} и добавляет через {@link #add}, оно вычитается из
+ * {@link Section#PAIRS}. Каждый шаг уходит событием JFR {@code org.mipt.Step}, а раз в {@code
+ * stride} шагов в {@code sink} пишется сводка за период.
+ *
+ * <p>Стоимость — десяток вызовов {@code System.nanoTime} на шаг и ещё два на столкновение в
+ * однопоточном режиме. Профиль пишет только шагающий поток; из других можно читать лишь {@link
+ * #getLastSummary}, {@link #getStepsPerSecond} и {@link #getNanosPerMoleculeStep}.
+ */
+public final class StepProfiler {
+  public enum Section {
+    WALL_MOTION,
+    INTEGRATE,
+    OBSERVABLES,
+    THERMOSTAT,
+    GRID,
+    PAIRS,
+    RESOLVE,
+    WALLS,
+    LISTENERS
+  }
+
+  public enum Counter {
+    PAIRS_TESTED,
+    COLLISIONS,
+    WALL_HITS,
+    CELL_MIGRATIONS,
+    CROWDED_CELLS
+  }
+
+  private static final Section[] SECTIONS = Section.values();
+  private static final Counter[] COUNTERS = Counter.values();
+
+  private final int stride;
+  private final Consumer<String> sink;
+  private final long[] stepNanos = new long[SECTIONS.length];
+  private final long[] stepCounts = new long[COUNTERS.length];
+  private final long[] periodNanos = new long[SECTIONS.length];
+  private final long[] periodCounts = new long[COUNTERS.length];
+  private long stepStart;
+  private long last;
+  private StepEvent event;
+  private long periodSteps;
+  private long periodMoleculeSteps;
+  private long periodWallNanos;
+  private long periodFirstStep;
+
+  private volatile String lastSummary = "";
+  private volatile double stepsPerSecond = Double.NaN;
+  private volatile double nanosPerMoleculeStep = Double.NaN;
+
+  /**
+   * @param stride через сколько шагов писать сводку
+   * @param sink куда писать сводку, например {@code System.out::println}
+   */
+  public StepProfiler(int stride, Consumer<String> sink) {
+    if (stride < 1) {
+      throw new IllegalArgumentException("Stride must be positive: " + stride);
+    }
+    this.stride = stride;
+    this.sink = sink;
+  }
+
+  /** Начало шага; вызывает драйвер. */
+  public void beginStep() {
+    event = new StepEvent();
+    event.begin();
+    stepStart = System.nanoTime();
+    last = stepStart;
+  }
+
+  /** Время с предыдущей отметки относится к участку {@code section}. */
+  public void lap(Section section) {
+    long now = System.nanoTime();
+    stepNanos[section.ordinal()] += now - last;
+    last = now;
+  }
+
+  /** Добавляет время, измеренное движком внутри своего участка. */
+  public void add(Section section, long nanos) {
+    stepNanos[section.ordinal()] += nanos;
+  }
+
+  public void count(Counter counter, long value) {
+    stepCounts[counter.ordinal()] += value;
+  }
+
+  /** Конец шага {@code step} с {@code molecules} молекулами; вызывает драйвер. */
+  public void endStep(long step, int molecules) {
+    long now = System.nanoTime();
+    int pairs = Section.PAIRS.ordinal();
+    stepNanos[pairs] =
+        Math.max(
+            0,
+            stepNanos[pairs]
+                - stepNanos[Section.GRID.ordinal()]
+                - stepNanos[Section.RESOLVE.ordinal()]);
+
+    if (event.isEnabled()) {
+      event.end();
+      event.fill(step, molecules, stepNanos, stepCounts);
+      event.commit();
+    }
+    event = null;
+
+    if (periodSteps == 0) {
+      periodFirstStep = step;
+    }
+    for (int s = 0; s < stepNanos.length; s++) {
+      periodNanos[s] += stepNanos[s];
+      stepNanos[s] = 0;
+    }
+    for (int c = 0; c < stepCounts.length; c++) {
+      periodCounts[c] += stepCounts[c];
+      stepCounts[c] = 0;
+    }
+    periodSteps++;
+    periodMoleculeSteps += molecules;
+    periodWallNanos += now - stepStart;
+    if (periodSteps == stride) {
+      summarize(step);
+    }
+  }
+
+  private void summarize(long step) {
+    stepsPerSecond = periodSteps * 1e9 / periodWallNanos;
+    nanosPerMoleculeStep = (double) periodWallNanos / Math.max(1, periodMoleculeSteps);
+    StringBuilder line =
+        new StringBuilder(
+            String.format(
+                Locale.ROOT,
+                "profile steps %d-%d: %.3f ms/step, %.1f steps/s, %.2f ns/molecule-step |",
+                periodFirstStep,
+                step,
+                periodWallNanos / 1e6 / periodSteps,
+                stepsPerSecond,
+                nanosPerMoleculeStep));
+    long accounted = 0;
+    for (Section section : SECTIONS) {
+      long nanos = periodNanos[section.ordinal()];
+      accounted += nanos;
+      line.append(
+          String.format(
+              Locale.ROOT, " %s %.1f%%", label(section), 100.0 * nanos / periodWallNanos));
+    }
+    line.append(
+        String.format(
+            Locale.ROOT,
+            " other %.1f%% |",
+            100.0 * Math.max(0, periodWallNanos - accounted) / periodWallNanos));
+    for (Counter counter : COUNTERS) {
+      line.append(
+          String.format(
+              Locale.ROOT,
+              " %s %.4g/step",
+              label(counter),
+              (double) periodCounts[counter.ordinal()] / periodSteps));
+    }
+    lastSummary = line.toString();
+    sink.accept(lastSummary);
+
+    Arrays.fill(periodNanos, 0);
+    Arrays.fill(periodCounts, 0);
+    periodSteps = 0;
+    periodMoleculeSteps = 0;
+    periodWallNanos = 0;
+  }
+
+  private static String label(Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT).replace('_', ' ');
+  }
+
+  /** Последняя сводка или пустая строка, если периода ещё не было. */
+  public String getLastSummary() {
+    return lastSummary;
+  }
+
+  /** Шагов в секунду за последний период; {@code NaN} до первой сводки. */
+  public double getStepsPerSecond() {
+    return stepsPerSecond;
+  }
+
+  /** Наносекунд на молекуло-шаг за последний период; {@code NaN} до первой сводки. */
+  public double getNanosPerMoleculeStep() {
+    return nanosPerMoleculeStep;
+  }
+}
@@ -0,0 +1,39 @@
+package org.mipt;
+
+/** Среднее и сумма квадратов отклонений, накапливаемые за один проход (алгоритм Уэлфорда). */
+public final class Welford {
+  private long count;
+  private double mean;
+  private double m2;
+
+  public void add(double value) {
+    ++count;
+    double delta = value - mean;
+    mean += delta / count;
+    m2 += delta * (value - mean);
+  }
+
+  public long count() {
+    return count;
+  }
+
+  /** Среднее; {@code NaN}, если значений не было. */
+  public double mean() {
+    return count > 0 ? mean : Double.NaN;
+  }
+
+  /** Стандартная ошибка среднего в предположении независимых значений; 0 для одного значения. */
+  public double standardError() {
+    if (count < 2) {
+      return 0;
+    }
+    double variance = m2 / (count - 1);
+    return Math.sqrt(variance / count);
+  }
+
+  public void reset() {
+    count = 0;
+    mean = 0;
+    m2 = 0;
+  }
+}
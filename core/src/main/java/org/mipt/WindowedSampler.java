@@ -0,0 +1,99 @@
+package org.mipt;
+
+/**
+ * Прореживание наблюдаемых: копит {@code stride} шагов и пишет в журнал одну запись на окно со
+ * средними, стандартными ошибками среднего и экспоненциальными скользящими средними.
+ *
+ * <p>Дисперсия в окне считается по Уэлфорду. Стандартная ошибка равна {@code sqrt(var / stride)},
+ * то есть соседние шаги считаются независимыми; для сильно коррелированного давления это оценка
+ * снизу. Скользящее среднее сглаживает по шагам с {@code alpha = 2 / (stride + 1)}. Средние тоже
+ * берутся по шагам, а не по времени: при адаптивном шаге короткие шаги весят столько же, сколько
+ * длинные, поэтому в запись идут и средний, и наименьший шаг окна.
+ */
+public class WindowedSampler implements SimulationDriver.StepListener {
+  public static final String[] COLUMNS = {
+    "step",
+    "time",
+    "pressureMean",
+    "pressureStdErr",
+    "pressureEma",
+    "temperatureMean",
+    "temperatureStdErr",
+    "temperatureEma",
+    "areaMean",
+    "kineticEnergyMean",
+    "collisions",
+    "timeStepMean",
+    "timeStepMin"
+  };
+
+  private final ObservablesLog log;
+  private final int stride;
+  private final double alpha;
+  private final double[] record = new double[COLUMNS.length];
+
+  private final Welford pressure = new Welford();
+  private final Welford temperature = new Welford();
+  private double areaSum;
+  private double kineticEnergySum;
+  private double timeStepSum;
+  private float timeStepMin = Float.POSITIVE_INFINITY;
+  private long windowStartCollisions;
+  private int samples;
+
+  private double pressureEma = Double.NaN;
+  private double temperatureEma = Double.NaN;
+
+  /** {@code startCollisions} — счётчик столкновений драйвера при подписке, начало первого окна. */
+  public WindowedSampler(ObservablesLog log, int stride, long startCollisions) {
+    if (stride < 1) {
+      throw new IllegalArgumentException("Stride must be positive: " + stride);
+    }
+    this.log = log;
+    this.stride = stride;
+    this.alpha = 2.0 / (stride + 1);
+    this.windowStartCollisions = startCollisions;
+  }
+
+  @Override
+  public void onStep(SimulationDriver driver) {
+    double p = driver.getPressure();
+    double t = driver.getTemperature();
+    pressure.add(p);
+    temperature.add(t);
+    areaSum += driver.getArea();
+    kineticEnergySum += driver.getKineticEnergy();
+    timeStepSum += driver.getTimeStep();
+    timeStepMin = Math.min(timeStepMin, driver.getTimeStep());
+    pressureEma = Double.isNaN(pressureEma) ? p : pressureEma + alpha * (p - pressureEma);
+    temperatureEma =
+        Double.isNaN(temperatureEma) ? t : temperatureEma + alpha * (t - temperatureEma);
+
+    if (++samples == stride) {
+      record[0] = driver.getStep();
+      record[1] = driver.getTime();
+      record[2] = pressure.mean();
+      record[3] = pressure.standardError();
+      record[4] = pressureEma;
+      record[5] = temperature.mean();
+      record[6] = temperature.standardError();
+      record[7] = temperatureEma;
+      record[8] = areaSum / samples;
+      record[9] = kineticEnergySum / samples;
+      record[10] = driver.getCollisionCount() - windowStartCollisions;
+      record[11] = timeStepSum / samples;
+      record[12] = timeStepMin;
+      log.append(record);
+      // столкновения следующего окна считаются от его границы, включая его первый шаг
+      windowStartCollisions = driver.getCollisionCount();
+
+      pressure.reset();
+      temperature.reset();
+      areaSum = 0;
+      kineticEnergySum = 0;
+      timeStepSum = 0;
+      timeStepMin = Float.POSITIVE_INFINITY;
+      samples = 0;
+    }
+  }
+}
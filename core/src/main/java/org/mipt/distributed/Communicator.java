@@ -0,0 +1,314 @@
+package org.mipt.distributed;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * Связь между процессами распределённого запуска по TCP. Процессы (ранги) выстроены в цепочку
+ * вдоль оси x: у каждого есть соединения с левым и правым соседом и, кроме нулевого, отдельное
+ * соединение с рангом 0 для глобальных свёрток.
+ *
+ * <p>Все операции блокирующие и коллективные: их должны вызвать все ранги в одном и том же
+ * порядке. Сообщение — длина в байтах и содержимое, порядок байтов little-endian.
+ */
+public final class Communicator implements AutoCloseable {
+  private static final int NEIGHBOR = 0;
+  private static final int ROOT = 1;
+  private static final int SOCKET_BUFFER = 4 << 20;
+  private static final long RETRY_MILLIS = 50;
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final int rank;
+  private final int size;
+  private final Link left;
+  private final Link right;
+  // у ранга 0 — соединения со всеми остальными по номерам, у прочих — null
+  private final Link[] workers;
+  private final Link root;
+  private ByteBuffer scalars = ByteBuffer.allocateDirect(64).order(ByteOrder.LITTLE_ENDIAN);
+
+  private Communicator(int rank, int size, Link left, Link right, Link[] workers, Link root) {
+    this.rank = rank;
+    this.size = size;
+    this.left = left;
+    this.right = right;
+    this.workers = workers;
+    this.root = root;
+  }
+
+  /**
+   * Поднимает соединения ранга {@code rank}. {@code addresses} — адреса всех рангов по порядку;
+   * свой адрес ранг слушает, к младшим соседу и рангу 0 подключается сам, повторяя попытки, пока
+   * они не начнут слушать, но не дольше {@code timeoutMillis}.
+   */
+  public static Communicator connect(int rank, List<InetSocketAddress> addresses, long timeoutMillis)
+      throws IOException {
+    int size = addresses.size();
+    if (rank < 0 || rank >= size) {
+      throw new IllegalArgumentException("Rank " + rank + " out of " + size);
+    }
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    Link left = null;
+    Link right = null;
+    Link root = null;
+    Link[] workers = rank == 0 ? new Link[size] : null;
+
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(addresses.get(rank), size);
+      if (rank > 0) {
+        left = new Link(dial(addresses.get(rank - 1), deadline));
+        left.hello(rank, NEIGHBOR);
+        root = new Link(dial(addresses.get(0), deadline));
+        root.hello(rank, ROOT);
+      }
+
+      int expected = (rank < size - 1 ? 1 : 0) + (rank == 0 ? size - 1 : 0);
+      for (int i = 0; i < expected; i++) {
+        Link link = new Link(server.accept());
+        ByteBuffer hello = link.receive();
+        int peer = hello.getInt();
+        int kind = hello.getInt();
+        if (kind == NEIGHBOR && peer == rank + 1 && right == null) {
+          right = link;
+        } else if (kind == ROOT && rank == 0 && peer > 0 && peer < size && workers[peer] == null) {
+          workers[peer] = link;
+        } else {
+          link.close();
+          throw new IOException("Unexpected connection from rank " + peer + " to rank " + rank);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      closeAll(workers, left, right, root);
+      throw e;
+    }
+    return new Communicator(rank, size, left, right, workers, root);
+  }
+
+  private static SocketChannel dial(InetSocketAddress address, long deadline) throws IOException {
+    while (true) {
+      try {
+        return SocketChannel.open(address);
+      } catch (ConnectException e) {
+        if (System.currentTimeMillis() > deadline) {
+          throw e;
+        }
+        try {
+          Thread.sleep(RETRY_MILLIS);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while connecting to " + address, interrupted);
+        }
+      }
+    }
+  }
+
+  public int rank() {
+    return rank;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isFirst() {
+    return rank == 0;
+  }
+
+  public boolean isLast() {
+    return rank == size - 1;
+  }
+
+  /**
+   * Обмен с соседями: {@code toLeft} уходит левому, {@code toRight} — правому (от позиции до
+   * предела; у крайних рангов соответствующий буфер не отправляется). Полученное читается через
+   * {@link #fromLeft} и {@link #fromRight} до следующего обмена.
+   *
+   * <p>Чётные ранги сначала обмениваются с правым соседом, нечётные — с левым, поэтому все пары
+   * проходят за два раунда при любом числе рангов. В паре левый сначала пишет, правый сначала
+   * читает, так что большие сообщения не упираются в заполненные буферы сокетов.
+   */
+  public void exchange(ByteBuffer toLeft, ByteBuffer toRight) {
+    try {
+      if (rank % 2 == 0) {
+        exchangeRight(toRight);
+        exchangeLeft(toLeft);
+      } else {
+        exchangeLeft(toLeft);
+        exchangeRight(toRight);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void exchangeRight(ByteBuffer payload) throws IOException {
+    if (right != null) {
+      right.send(payload);
+      right.receive();
+    }
+  }
+
+  private void exchangeLeft(ByteBuffer payload) throws IOException {
+    if (left != null) {
+      left.receive();
+      left.send(payload);
+    }
+  }
+
+  /** Полученное от левого соседа при последнем обмене; у ранга 0 всегда пусто. */
+  public ByteBuffer fromLeft() {
+    return left != null ? left.received() : EMPTY;
+  }
+
+  /** Полученное от правого соседа при последнем обмене; у последнего ранга всегда пусто. */
+  public ByteBuffer fromRight() {
+    return right != null ? right.received() : EMPTY;
+  }
+
+  /**
+   * Поэлементная сумма {@code values} по всем рангам, результат записывается на место. Ранг 0
+   * складывает вклады в порядке номеров, поэтому сумма до бита одинакова на всех рангах и не
+   * зависит от того, кто раньше прислал свою часть.
+   */
+  public void allReduce(double[] values) {
+    try {
+      if (rank == 0) {
+        for (int peer = 1; peer < size; peer++) {
+          ByteBuffer part = workers[peer].receive();
+          for (int i = 0; i < values.length; i++) {
+            values[i] += part.getDouble();
+          }
+        }
+        ByteBuffer result = fill(values);
+        for (int peer = 1; peer < size; peer++) {
+          workers[peer].send(result.duplicate());
+        }
+      } else {
+        root.send(fill(values));
+        ByteBuffer result = root.receive();
+        for (int i = 0; i < values.length; i++) {
+          values[i] = result.getDouble();
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Значение ранга 0; у остальных {@code value} не используется. */
+  public long broadcast(long value) {
+    try {
+      if (rank == 0) {
+        scalars.clear();
+        scalars.putLong(value).flip();
+        for (int peer = 1; peer < size; peer++) {
+          workers[peer].send(scalars.duplicate());
+        }
+        return value;
+      }
+      return root.receive().getLong();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private ByteBuffer fill(double[] values) {
+    if (scalars.capacity() < values.length * Double.BYTES) {
+      scalars = ByteBuffer.allocateDirect(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    scalars.clear();
+    for (double value : values) {
+      scalars.putDouble(value);
+    }
+    return scalars.flip();
+  }
+
+  @Override
+  public void close() {
+    closeAll(workers, left, right, root);
+  }
+
+  private static void closeAll(Link[] workers, Link... links) {
+    for (Link link : links) {
+      if (link != null) {
+        link.close();
+      }
+    }
+    if (workers != null) {
+      closeAll(null, workers);
+    }
+  }
+
+  /** Одно TCP-соединение со своим буфером приёма, который растёт под самое длинное сообщение. */
+  private static final class Link {
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(4).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer[] frame = new ByteBuffer[2];
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+    Link(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER);
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER);
+      buffer.limit(0);
+    }
+
+    void hello(int rank, int kind) throws IOException {
+      ByteBuffer hello = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      send(hello.putInt(rank).putInt(kind).flip());
+    }
+
+    void send(ByteBuffer payload) throws IOException {
+      header.clear();
+      header.putInt(payload.remaining()).flip();
+      frame[0] = header;
+      frame[1] = payload;
+      while (payload.hasRemaining() || header.hasRemaining()) {
+        channel.write(frame);
+      }
+    }
+
+    ByteBuffer receive() throws IOException {
+      header.clear();
+      readFully(header);
+      int length = header.flip().getInt();
+      if (buffer.capacity() < length) {
+        buffer =
+            ByteBuffer.allocateDirect(Math.max(length, 2 * buffer.capacity()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+      }
+      buffer.clear().limit(length);
+      readFully(buffer);
+      return buffer.flip();
+    }
+
+    ByteBuffer received() {
+      return buffer;
+    }
+
+    private void readFully(ByteBuffer target) throws IOException {
+      while (target.hasRemaining()) {
+        if (channel.read(target) < 0) {
+          throw new IOException("Connection closed by peer");
+        }
+      }
+    }
+
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+        // соединение всё равно больше не нужно
+      }
+    }
+  }
+}
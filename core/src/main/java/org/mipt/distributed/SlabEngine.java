@@ -0,0 +1,561 @@
+package org.mipt.distributed;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import org.mipt.CellList;
+import org.mipt.CollisionKernel;
+import org.mipt.MoleculeInitializer;
+import org.mipt.Physics;
+import org.mipt.SimulationDriver;
+import org.mipt.SimulationEngine;
+import org.mipt.entity.Molecule;
+import org.mipt.entity.Particles;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Шаг по времени для одной вертикальной полосы сосуда в распределённом запуске. Сосуд режется
+ * по столбцам общей сетки клеток на {@link Communicator#size} полос, каждой владеет свой процесс;
+ * правая полоса тянется до движущейся стенки и держит её. Каждый ранг ведёт собственный {@link
+ * SimulationDriver}: глобальные наблюдаемые на всех рангах одинаковы, поэтому драйверы принимают
+ * одни и те же решения по фазам и вызывают коллективные операции в одном порядке.
+ *
+ * <p>За шаг:
+ *
+ * <ul>
+ *   <li>{@link #applyPhysics} сдвигает молекулы и передаёт соседям вышедшие за полосу; если
+ *       молекула перелетела и соседнюю полосу, передача повторяется. Здесь же одна свёртка
+ *       собирает кинетическую энергию, импульс стенок и число ударов;
+ *   <li>{@link #collisions} получает от правого соседа копии молекул его первого столбца клеток
+ *       (гало), обрабатывает пары через границу и возвращает соседу изменения скоростей его
+ *       молекул. Каждая пара обрабатывается ровно одним рангом, импульс сохраняется точно.
+ * </ul>
+ *
+ * <p>Начальная расстановка та же, что у {@link Physics} с тем же зерном: каждый ранг проходит
+ * общую последовательность целиком и оставляет себе свои молекулы. Полосы не перераспределяются:
+ * при расширении сосуда молекулы уходят в последнюю полосу, сетка которой растёт вместе со стенкой.
+ */
+public class SlabEngine implements SimulationEngine {
+  private static final int BYTES_PER_MOLECULE = 6 * Float.BYTES + 2 * Integer.BYTES;
+  private static final int BYTES_PER_VELOCITY = 2 * Float.BYTES;
+
+  // ячейки вектора свёртки
+  private static final int PENDING = 0;
+  private static final int KINETIC_ENERGY = 1;
+  private static final int IMPULSE = 2;
+  private static final int COLLISIONS = 3;
+  private static final int MOLECULES = 4;
+
+  private final SimulationConfig config;
+  private final Communicator comm;
+  private final Particles particles;
+  private final CellList cells;
+  private final int totalMolecules;
+  // границы своей полосы; у крайних рангов снаружи бесконечность
+  private final float slabLeft;
+  private final float slabRight;
+  // молекулы левее уходят копиями левому соседу
+  private final float haloEdge;
+  private final float epsilon;
+  private float currentWidth;
+  private float wallVelocity;
+
+  private ByteBuffer toLeft = allocate(1 << 16);
+  private ByteBuffer toRight = allocate(1 << 16);
+  // какие свои молекулы ушли копиями левому соседу и скорости чужих копий до ударов
+  private int[] haloSent = new int[1024];
+  private int haloCount;
+  private float[] ghostVx = new float[1024];
+  private float[] ghostVy = new float[1024];
+
+  private final double[] reduction = new double[5];
+  private final double[] wallResult = new double[3];
+  // свёрнутые по всем рангам величины; dirty — локальные изменились после последней свёртки
+  private boolean dirty = true;
+  private double kineticEnergy;
+  private double impulse;
+  private long collisionCount;
+  private double localImpulse;
+  // за какое время набран импульс; одинаково на всех рангах, поэтому не сворачивается
+  private double impulseTime;
+  private float lastTimeStep;
+  private long localCollisions;
+
+  public SlabEngine(SimulationConfig config, Communicator comm) {
+    if (Physics.isPeriodic(config.simulation.boundary())) {
+      throw new IllegalArgumentException("Distributed runs support only walls as boundary");
+    }
+    this.config = config;
+    this.comm = comm;
+    this.totalMolecules = config.simulation.numberOfMolecules();
+    float originX = config.vessel.position().x;
+    float width = config.vessel.width();
+    float cellEdge =
+        CellList.cellEdge(
+            config.molecule.diameter() + 2 * config.molecule.halfBoundLength(),
+            (double) width * config.vessel.height(),
+            totalMolecules,
+            config.simulation.cellOccupancy());
+    int columns = Math.max(1, (int) (width / cellEdge));
+    if (columns < comm.size()) {
+      throw new IllegalArgumentException(
+          "Vessel has " + columns + " cell columns, fewer than " + comm.size() + " ranks");
+    }
+    int firstColumn = comm.rank() * columns / comm.size();
+    int lastColumn = (comm.rank() + 1) * columns / comm.size();
+    float gridLeft = originX + firstColumn * cellEdge;
+    this.slabLeft = comm.isFirst() ? Float.NEGATIVE_INFINITY : gridLeft;
+    this.slabRight = comm.isLast() ? Float.POSITIVE_INFINITY : originX + lastColumn * cellEdge;
+    this.haloEdge = gridLeft + cellEdge;
+    // у последнего ранга сетка до стенки и следует за ней, у остальных — свои столбцы и ещё один
+    // под гало; полстолбца запаса от округления
+    float gridWidth =
+        comm.isLast() ? originX + width - gridLeft : (lastColumn - firstColumn + 1.5f) * cellEdge;
+
+    int share = totalMolecules / comm.size() + 1;
+    String storage = config.simulation.storage();
+    this.particles = Particles.create(storage, share + share / 2, config.molecule);
+    particles.setSize(0);
+    this.cells =
+        CellList.create(
+            Particles.isDirect(storage),
+            gridLeft,
+            config.vessel.position().y,
+            gridWidth,
+            config.vessel.height(),
+            cellEdge,
+            share);
+    if (comm.isLast()) {
+      cells.reserveWidth(originX + width * SimulationDriver.EXPANSION_FACTOR - gridLeft);
+    }
+    this.epsilon = 0.1f * config.molecule.diameter() / 2;
+    this.currentWidth = width;
+
+    // зерно общее для всех рангов, иначе полосы разойдутся в расстановке
+    long seed = config.simulation.seed();
+    seed = comm.broadcast(seed != 0 ? seed : new Random().nextLong());
+    Physics.MoleculeSink keep =
+        (i, x, y, vx, vy) -> {
+          if (x >= slabLeft && x < slabRight) {
+            int j = append();
+            particles.setPosition(j, x, y);
+            particles.setVelocity(j, vx, vy);
+            particles.setDirection(j, 1, 0);
+            particles.setSpecies(j, 0);
+            particles.setId(j, i);
+          }
+        };
+    if (MoleculeInitializer.isLegacy(config.simulation.placement())) {
+      Physics.initializeMolecules(config, new Random(seed), totalMolecules, keep);
+    } else {
+      // поправка скоростей считается по всем молекулам и поэтому одна на все ранги
+      MoleculeInitializer.Correction correction =
+          MoleculeInitializer.generate(config, seed, totalMolecules, keep);
+      for (int i = 0; i < particles.size(); i++) {
+        correction.apply(particles, i);
+      }
+    }
+    synchronize();
+  }
+
+  private static ByteBuffer allocate(int bytes) {
+    return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Буфер, в который влезет ещё {@code bytes} байт, с уже записанным содержимым. */
+  private static ByteBuffer reserve(ByteBuffer buffer, int bytes) {
+    if (buffer.remaining() >= bytes) {
+      return buffer;
+    }
+    ByteBuffer larger = allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+    larger.put(buffer.flip());
+    return larger;
+  }
+
+  private int append() {
+    int i = particles.size();
+    particles.ensureCapacity(i + 1);
+    particles.setSize(i + 1);
+    return i;
+  }
+
+  private void remove(int i) {
+    int last = particles.size() - 1;
+    if (i != last) {
+      particles.copy(i, particles, last);
+    }
+    particles.setSize(last);
+  }
+
+  private static void pack(ByteBuffer buffer, Particles particles, int i) {
+    buffer
+        .putFloat(particles.getX(i))
+        .putFloat(particles.getY(i))
+        .putFloat(particles.getVx(i))
+        .putFloat(particles.getVy(i))
+        .putFloat(particles.getDirX(i))
+        .putFloat(particles.getDirY(i))
+        .putInt(particles.getSpecies(i))
+        .putInt(particles.getId(i));
+  }
+
+  private void unpack(ByteBuffer buffer) {
+    while (buffer.hasRemaining()) {
+      int i = append();
+      particles.setPosition(i, buffer.getFloat(), buffer.getFloat());
+      particles.setVelocity(i, buffer.getFloat(), buffer.getFloat());
+      particles.setDirection(i, buffer.getFloat(), buffer.getFloat());
+      particles.setSpecies(i, buffer.getInt());
+      particles.setId(i, buffer.getInt());
+    }
+  }
+
+  @Override
+  public void applyPhysics(float dt) {
+    particles.integrate(dt);
+    lastTimeStep = dt;
+    migrate();
+  }
+
+  /**
+   * Передаёт соседям молекулы, вышедшие за полосу, пока таких не останется ни у одного ранга.
+   * Первая свёртка заодно обновляет глобальные величины: переходы молекул их не меняют.
+   */
+  private void migrate() {
+    boolean first = true;
+    while (true) {
+      toLeft.clear();
+      toRight.clear();
+      int i = 0;
+      while (i < particles.size()) {
+        float x = particles.getX(i);
+        if (x < slabLeft) {
+          toLeft = reserve(toLeft, BYTES_PER_MOLECULE);
+          pack(toLeft, particles, i);
+          remove(i);
+        } else if (x >= slabRight) {
+          toRight = reserve(toRight, BYTES_PER_MOLECULE);
+          pack(toRight, particles, i);
+          remove(i);
+        } else {
+          i++;
+        }
+      }
+      int kept = particles.size();
+      comm.exchange(toLeft.flip(), toRight.flip());
+      unpack(comm.fromLeft());
+      unpack(comm.fromRight());
+
+      int pending = 0;
+      for (int j = kept; j < particles.size(); j++) {
+        float x = particles.getX(j);
+        if (x < slabLeft || x >= slabRight) {
+          pending++;
+        }
+      }
+      if (first) {
+        fillReduction();
+      } else {
+        Arrays.fill(reduction, 0);
+      }
+      reduction[PENDING] = pending;
+      comm.allReduce(reduction);
+      if (first) {
+        applyReduction();
+        first = false;
+      }
+      if (reduction[PENDING] == 0) {
+        return;
+      }
+    }
+  }
+
+  private void fillReduction() {
+    Arrays.fill(reduction, 0);
+    reduction[KINETIC_ENERGY] = particles.totalKineticEnergy();
+    reduction[IMPULSE] = localImpulse;
+    reduction[COLLISIONS] = localCollisions;
+    reduction[MOLECULES] = particles.size();
+  }
+
+  private void applyReduction() {
+    if ((long) reduction[MOLECULES] != totalMolecules) {
+      throw new IllegalStateException(
+          "Ranks hold " + (long) reduction[MOLECULES] + " molecules instead of " + totalMolecules);
+    }
+    kineticEnergy = reduction[KINETIC_ENERGY];
+    impulse += reduction[IMPULSE];
+    collisionCount += (long) reduction[COLLISIONS];
+    localImpulse = 0;
+    localCollisions = 0;
+    dirty = false;
+  }
+
+  /** Свёртка глобальных величин, если после прошлой что-то менялось. Коллективная операция. */
+  private void synchronize() {
+    if (dirty) {
+      fillReduction();
+      comm.allReduce(reduction);
+      applyReduction();
+    }
+  }
+
+  @Override
+  public void collisions() {
+    int owned = particles.size();
+    toLeft.clear();
+    haloCount = 0;
+    if (!comm.isFirst()) {
+      for (int i = 0; i < owned; i++) {
+        if (particles.getX(i) < haloEdge) {
+          toLeft = reserve(toLeft, BYTES_PER_MOLECULE);
+          pack(toLeft, particles, i);
+          if (haloCount == haloSent.length) {
+            haloSent = Arrays.copyOf(haloSent, 2 * haloCount);
+          }
+          haloSent[haloCount++] = i;
+        }
+      }
+    }
+    toRight.clear();
+    comm.exchange(toLeft.flip(), toRight.flip());
+    unpack(comm.fromRight());
+
+    int ghosts = particles.size() - owned;
+    if (ghostVx.length < ghosts) {
+      ghostVx = new float[Math.max(ghosts, 2 * ghostVx.length)];
+      ghostVy = new float[ghostVx.length];
+    }
+    for (int g = 0; g < ghosts; g++) {
+      ghostVx[g] = particles.getVx(owned + g);
+      ghostVy[g] = particles.getVy(owned + g);
+    }
+
+    cells.rebuild(particles);
+    int cellCount = cells.getColumns() * cells.getRows();
+    for (int cell = 0; cell < cellCount; cell++) {
+      collideCell(cell, owned);
+    }
+
+    // изменения скоростей копий уходят владельцу, свои копии левому соседу получаем обратно
+    toRight.clear();
+    toRight = reserve(toRight, ghosts * BYTES_PER_VELOCITY);
+    for (int g = 0; g < ghosts; g++) {
+      toRight.putFloat(particles.getVx(owned + g) - ghostVx[g]);
+      toRight.putFloat(particles.getVy(owned + g) - ghostVy[g]);
+    }
+    particles.setSize(owned);
+    toLeft.clear();
+    comm.exchange(toLeft.flip(), toRight.flip());
+    ByteBuffer deltas = comm.fromLeft();
+    for (int k = 0; k < haloCount; k++) {
+      int i = haloSent[k];
+      particles.setVelocity(
+          i, particles.getVx(i) + deltas.getFloat(), particles.getVy(i) + deltas.getFloat());
+    }
+    dirty = true;
+  }
+
+  /** Полушаблон клетки, как в {@link Physics}; пары из двух копий соседа пропускаются. */
+  private void collideCell(int cell, int owned) {
+    int columns = cells.getColumns();
+    int rows = cells.getRows();
+    int row = cell / columns;
+    int col = cell % columns;
+    int begin = cells.cellStart(cell);
+    int end = begin + cells.cellCount(cell);
+    for (int j = begin; j < end; j++) {
+      int a = cells.molecule(j);
+      for (int k = j + 1; k < end; k++) {
+        collide(a, cells.molecule(k), owned);
+      }
+      if (col + 1 < columns) {
+        collideWithCell(a, cell + 1, owned);
+      }
+      if (row + 1 < rows) {
+        collideWithCell(a, cell + columns, owned);
+      }
+      if (col + 1 < columns && row + 1 < rows) {
+        collideWithCell(a, cell + columns + 1, owned);
+      }
+      if (col + 1 < columns && row > 0) {
+        collideWithCell(a, cell - columns + 1, owned);
+      }
+    }
+  }
+
+  private void collideWithCell(int a, int cell, int owned) {
+    int begin = cells.cellStart(cell);
+    int end = begin + cells.cellCount(cell);
+    for (int k = begin; k < end; k++) {
+      collide(a, cells.molecule(k), owned);
+    }
+  }
+
+  private void collide(int a, int b, int owned) {
+    if ((a < owned || b < owned)
+        && CollisionKernel.isColliding(particles, a, b)
+        && CollisionKernel.resolveCollision(particles, a, b)) {
+      localCollisions++;
+    }
+  }
+
+  @Override
+  public void handleCollisionsWithWalls() {
+    float originX = config.vessel.position().x;
+    float left = comm.isFirst() ? originX + epsilon : Float.NEGATIVE_INFINITY;
+    float right = comm.isLast() ? originX + currentWidth - epsilon : Float.POSITIVE_INFINITY;
+    float bottom = config.vessel.position().y + epsilon;
+    float top = config.vessel.position().y + config.vessel.height() - epsilon;
+
+    wallResult[0] = 0;
+    wallResult[1] = 0;
+    wallResult[2] = 0;
+    particles.reflectWalls(left, right, bottom, top, wallVelocity, wallResult);
+    localImpulse += wallResult[0];
+    impulseTime += lastTimeStep;
+    dirty = true;
+  }
+
+  /** Давление по импульсу, переданному всем стенкам со времени прошлого вызова. */
+  @Override
+  public double calculatePressure() {
+    synchronize();
+    double totalImpulse = impulse;
+    double deltaTime = impulseTime;
+    impulse = 0;
+    impulseTime = 0;
+    if (deltaTime <= 0) {
+      return 0;
+    }
+    return totalImpulse / deltaTime / (2 * (currentWidth + config.vessel.height()));
+  }
+
+  @Override
+  public double calcTemp() {
+    synchronize();
+    return kineticEnergy / (totalMolecules * Physics.k);
+  }
+
+  /** Кинетическая энергия всех рангов на момент последней свёртки; без обмена. */
+  @Override
+  public double getKineticEnergy() {
+    return kineticEnergy;
+  }
+
+  /**
+   * Наибольшая скорость по всем рангам. Коллективная операция: максимум собирается суммой, в
+   * которой каждый ранг заполняет только свою ячейку.
+   */
+  @Override
+  public double getMaxSpeed() {
+    double[] speeds = new double[comm.size()];
+    speeds[comm.rank()] = particles.maxSpeed();
+    comm.allReduce(speeds);
+    double max = 0;
+    for (double speed : speeds) {
+      max = Math.max(max, speed);
+    }
+    return max;
+  }
+
+  /** Число ударов по всем рангам на момент последней свёртки; без обмена. */
+  @Override
+  public long getCollisionCount() {
+    return collisionCount;
+  }
+
+  @Override
+  public double calcArea() {
+    return currentWidth * config.vessel.height();
+  }
+
+  @Override
+  public void heatStep(double deltaTemp) {
+    double currentTemp = calcTemp();
+    scaleVelocities((float) Math.sqrt((currentTemp + deltaTemp) / currentTemp));
+  }
+
+  @Override
+  public void applyThermostat(double targetTemp) {
+    double currentTemp = calcTemp();
+    if (Math.abs(currentTemp - targetTemp) <= 0.01) return;
+    scaleVelocities((float) Math.sqrt(targetTemp / currentTemp));
+  }
+
+  private void scaleVelocities(float scale) {
+    particles.scaleVelocities(scale);
+    kineticEnergy *= (double) scale * scale;
+  }
+
+  @Override
+  public void moveWall(double dt) {
+    currentWidth += (float) (wallVelocity * dt);
+    if (comm.isLast()) {
+      cells.resize(config.vessel.position().x + currentWidth - cells.getOriginX());
+    }
+  }
+
+  @Override
+  public void setWallVelocity(float wallVelocity) {
+    this.wallVelocity = wallVelocity;
+  }
+
+  @Override
+  public void turnOffWallMoving() {
+    wallVelocity = 0;
+  }
+
+  @Override
+  public float getWidth() {
+    return currentWidth;
+  }
+
+  @Override
+  public float getWallVelocity() {
+    return wallVelocity;
+  }
+
+  @Override
+  public double getWallImpulse() {
+    return impulse;
+  }
+
+  @Override
+  public double getWallImpulseTime() {
+    return impulseTime;
+  }
+
+  /** Сетка полосы не покрывает сосуд целиком, поэтому наружу не отдаётся. */
+  @Override
+  public CellList getCells() {
+    return null;
+  }
+
+  /** Молекулы своей полосы; их число меняется от шага к шагу. */
+  @Override
+  public Particles getParticles() {
+    return particles;
+  }
+
+  @Override
+  public Molecule[] getMolecules() {
+    Molecule[] molecules = new Molecule[particles.size()];
+    for (int i = 0; i < molecules.length; i++) {
+      molecules[i] = new Molecule(particles, i);
+    }
+    return molecules;
+  }
+
+  public Communicator getCommunicator() {
+    return comm;
+  }
+
+  @Override
+  public void dispose() {
+    comm.close();
+    particles.close();
+    cells.close();
+  }
+}
@@ -1,4 +1,4 @@
 package org.mipt.dto;
 
 public record SimulationSettings(
-    int numberOfMolecules, float timeStep, float temperature, float targetTemp, int clusterSize, int stepsPerFrame, int visibleMoleculesStep, double tempRatePerSecond, int thermostatStepsToApply) {}
+    int numberOfMolecules, float timeStep, float temperature, float targetTemp, int visibleMoleculesStep, double tempRatePerSecond, int thermostatStepsToApply, long seed, int collisionThreads, String engine, float cellOccupancy, int logStride, int checkpointStride, float verletSkin, int reorderStride, String storage, int profileStride, float maxDisplacement, String placement, int blockSteps, float equilibriumTolerance, int sampleBlocks, String boundary) {}
@@ -0,0 +1,59 @@
+package org.mipt.entity;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Буферы вне кучи для столбцов молекул и сетки. Память буфера обычно возвращается, только когда
+ * сборщик мусора соберёт его объект, а при плоской куче это может не случиться никогда, поэтому
+ * {@link #free} освобождает её сразу через {@code sun.misc.Unsafe#invokeCleaner}. Если тот
+ * недоступен, освобождение остаётся сборщику.
+ */
+public final class DirectBuffers {
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> type = Class.forName("sun.misc.Unsafe");
+      Field field = type.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private DirectBuffers() {}
+
+  /** Обнулённый буфер вне кучи на {@code bytes} байт, порядок little-endian. */
+  public static ByteBuffer allocate(long bytes) {
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Buffer of " + bytes + " bytes exceeds 2 GiB");
+    }
+    return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Освобождает память буфера, полученного из {@link #allocate} или отображения файла (не среза).
+   * После этого ни сам буфер, ни его представления трогать нельзя.
+   */
+  public static void free(ByteBuffer buffer) {
+    if (INVOKE_CLEANER == null || !buffer.isDirect()) {
+      return;
+    }
+    try {
+      INVOKE_CLEANER.invoke(UNSAFE, buffer);
+    } catch (ReflectiveOperationException | IllegalArgumentException e) {
+      // память вернёт сборщик мусора
+    }
+  }
+}
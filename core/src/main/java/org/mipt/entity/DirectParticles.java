@@ -0,0 +1,386 @@
+package org.mipt.entity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import org.mipt.dto.MoleculeData;
+
+/**
+ * Столбцы молекул в буферах вне кучи: по буферу little-endian на столбец в порядке x, y, vx, vy,
+ * dirX, dirY, виды, номера. В куче остаётся только этот объект, поэтому её размер не зависит от
+ * числа молекул. Тот же порядок столбцов у контрольной точки, и {@link #map} работает прямо по
+ * файлу без копирования в память процесса.
+ *
+ * <p>Память освобождается в {@link #close} сразу, не дожидаясь сборщика мусора (см. {@link
+ * DirectBuffers}). Циклы по всем молекулам скалярные: векторные ядра работают по массивам кучи.
+ */
+public final class DirectParticles extends Particles {
+  private static final int COLUMNS = 8;
+
+  // исходные буферы столбцов: по ним освобождается память, остальные поля — их представления
+  private ByteBuffer[] blocks;
+  private FloatBuffer x;
+  private FloatBuffer y;
+  private FloatBuffer vx;
+  private FloatBuffer vy;
+  private FloatBuffer dirX;
+  private FloatBuffer dirY;
+  private IntBuffer species;
+  private IntBuffer id;
+  private int capacity;
+  // столбцы под перестановку, см. permute
+  private DirectParticles spare;
+
+  public DirectParticles(int size, MoleculeData... speciesTable) {
+    this(allocate(size), size, speciesTable);
+    for (int i = 0; i < size; i++) {
+      dirX.put(i, 1);
+      id.put(i, i);
+    }
+  }
+
+  private DirectParticles(ByteBuffer[] blocks, int size, MoleculeData[] speciesTable) {
+    super(size, speciesTable);
+    this.blocks = blocks;
+    bind();
+  }
+
+  /**
+   * Отображает {@code size} молекул из файла: столбцы идут подряд с позиции {@code offset}, каждый
+   * по {@code 4 * size} байт. В режиме {@code READ_ONLY} запись в хранилище бросает исключение, в
+   * {@code PRIVATE} изменения остаются в памяти и в файл не попадают. Канал можно закрыть сразу,
+   * отображение живёт до {@link #close}.
+   */
+  public static DirectParticles map(
+      FileChannel channel,
+      FileChannel.MapMode mode,
+      long offset,
+      int size,
+      MoleculeData... speciesTable)
+      throws IOException {
+    long column = (long) size * Float.BYTES;
+    ByteBuffer[] blocks = new ByteBuffer[COLUMNS];
+    try {
+      for (int k = 0; k < COLUMNS; k++) {
+        blocks[k] = channel.map(mode, offset + k * column, column).order(ByteOrder.LITTLE_ENDIAN);
+      }
+    } catch (IOException | RuntimeException e) {
+      free(blocks);
+      throw e;
+    }
+    return new DirectParticles(blocks, size, speciesTable);
+  }
+
+  private static ByteBuffer[] allocate(int capacity) {
+    ByteBuffer[] blocks = new ByteBuffer[COLUMNS];
+    for (int k = 0; k < COLUMNS; k++) {
+      blocks[k] = DirectBuffers.allocate((long) capacity * Float.BYTES);
+    }
+    return blocks;
+  }
+
+  private static void free(ByteBuffer[] blocks) {
+    for (ByteBuffer block : blocks) {
+      if (block != null) {
+        DirectBuffers.free(block);
+      }
+    }
+  }
+
+  private void bind() {
+    x = blocks[0].asFloatBuffer();
+    y = blocks[1].asFloatBuffer();
+    vx = blocks[2].asFloatBuffer();
+    vy = blocks[3].asFloatBuffer();
+    dirX = blocks[4].asFloatBuffer();
+    dirY = blocks[5].asFloatBuffer();
+    species = blocks[6].asIntBuffer();
+    id = blocks[7].asIntBuffer();
+    capacity = x.capacity();
+  }
+
+  @Override
+  public int capacity() {
+    return capacity;
+  }
+
+  @Override
+  public void ensureCapacity(int capacity) {
+    if (capacity <= this.capacity) {
+      return;
+    }
+    int length = Math.max(capacity, this.capacity + this.capacity / 2);
+    ByteBuffer[] grown = allocate(length);
+    for (int k = 0; k < COLUMNS; k++) {
+      grown[k].put(0, blocks[k], 0, blocks[k].capacity());
+    }
+    int old = this.capacity;
+    free(blocks);
+    blocks = grown;
+    bind();
+    for (int i = old; i < length; i++) {
+      dirX.put(i, 1);
+    }
+  }
+
+  @Override
+  public float getX(int i) {
+    return x.get(i);
+  }
+
+  @Override
+  public float getY(int i) {
+    return y.get(i);
+  }
+
+  @Override
+  public float getVx(int i) {
+    return vx.get(i);
+  }
+
+  @Override
+  public float getVy(int i) {
+    return vy.get(i);
+  }
+
+  @Override
+  public float getDirX(int i) {
+    return dirX.get(i);
+  }
+
+  @Override
+  public float getDirY(int i) {
+    return dirY.get(i);
+  }
+
+  @Override
+  public void setX(int i, float value) {
+    x.put(i, value);
+  }
+
+  @Override
+  public void setY(int i, float value) {
+    y.put(i, value);
+  }
+
+  @Override
+  public void setVx(int i, float value) {
+    vx.put(i, value);
+  }
+
+  @Override
+  public void setVy(int i, float value) {
+    vy.put(i, value);
+  }
+
+  @Override
+  public void setPosition(int i, float px, float py) {
+    x.put(i, px);
+    y.put(i, py);
+  }
+
+  @Override
+  public void setVelocity(int i, float pvx, float pvy) {
+    vx.put(i, pvx);
+    vy.put(i, pvy);
+  }
+
+  @Override
+  public void setDirection(int i, float dx, float dy) {
+    dirX.put(i, dx);
+    dirY.put(i, dy);
+  }
+
+  @Override
+  public int getSpecies(int i) {
+    return species.get(i);
+  }
+
+  @Override
+  public void setSpecies(int i, int speciesIndex) {
+    species.put(i, speciesIndex);
+  }
+
+  @Override
+  public int getId(int i) {
+    return id.get(i);
+  }
+
+  @Override
+  public void setId(int i, int value) {
+    id.put(i, value);
+  }
+
+  @Override
+  public void copyFrom(Particles source) {
+    if (!(source instanceof DirectParticles)) {
+      super.copyFrom(source);
+      return;
+    }
+    DirectParticles other = (DirectParticles) source;
+    if (other.size() != size()) {
+      throw new IllegalArgumentException("Size mismatch: " + other.size() + " != " + size());
+    }
+    int bytes = size() * Float.BYTES;
+    for (int k = 0; k < COLUMNS; k++) {
+      blocks[k].put(0, other.blocks[k], 0, bytes);
+    }
+  }
+
+  @Override
+  public void permute(int[] order) {
+    if (spare == null || spare.capacity != capacity) {
+      if (spare != null) {
+        spare.close();
+      }
+      spare = new DirectParticles(capacity, getSpeciesTable());
+    }
+    int size = size();
+    for (int i = 0; i < size; i++) {
+      int from = order[i];
+      spare.x.put(i, x.get(from));
+      spare.y.put(i, y.get(from));
+      spare.vx.put(i, vx.get(from));
+      spare.vy.put(i, vy.get(from));
+      spare.dirX.put(i, dirX.get(from));
+      spare.dirY.put(i, dirY.get(from));
+      spare.species.put(i, species.get(from));
+      spare.id.put(i, id.get(from));
+    }
+    ByteBuffer[] swap = blocks;
+    blocks = spare.blocks;
+    spare.blocks = swap;
+    bind();
+    spare.bind();
+  }
+
+  @Override
+  public void integrate(float dt) {
+    FloatBuffer x = this.x;
+    FloatBuffer y = this.y;
+    FloatBuffer vx = this.vx;
+    FloatBuffer vy = this.vy;
+    int size = size();
+    for (int i = 0; i < size; i++) {
+      x.put(i, x.get(i) + vx.get(i) * dt);
+      y.put(i, y.get(i) + vy.get(i) * dt);
+    }
+  }
+
+  @Override
+  public void scaleVelocities(float scale) {
+    FloatBuffer vx = this.vx;
+    FloatBuffer vy = this.vy;
+    int size = size();
+    for (int i = 0; i < size; i++) {
+      vx.put(i, vx.get(i) * scale);
+      vy.put(i, vy.get(i) * scale);
+    }
+  }
+
+  @Override
+  public double totalKineticEnergy() {
+    MoleculeData[] speciesTable = getSpeciesTable();
+    int size = size();
+    if (speciesTable.length == 1) {
+      double total = 0;
+      for (int i = 0; i < size; i++) {
+        double pvx = vx.get(i);
+        double pvy = vy.get(i);
+        total += pvx * pvx + pvy * pvy;
+      }
+      return 0.5 * speciesTable[0].mass() * total;
+    }
+    double total = 0;
+    for (int i = 0; i < size; i++) {
+      total += kineticEnergy(i);
+    }
+    return total;
+  }
+
+  @Override
+  public double maxSpeed() {
+    FloatBuffer vx = this.vx;
+    FloatBuffer vy = this.vy;
+    int size = size();
+    float max = 0;
+    for (int i = 0; i < size; i++) {
+      float pvx = vx.get(i);
+      float pvy = vy.get(i);
+      max = Math.max(max, pvx * pvx + pvy * pvy);
+    }
+    return Math.sqrt(max);
+  }
+
+  @Override
+  public void reflectWalls(
+      float left,
+      float right,
+      float bottom,
+      float top,
+      float wallVelocity,
+      double[] result) {
+    boolean single = getSpeciesTable().length == 1;
+    float commonMass = getSpeciesTable()[0].mass();
+    double impulse = 0;
+    double energy = 0;
+    int hits = 0;
+    int size = size();
+    for (int i = 0; i < size; i++) {
+      float px = x.get(i);
+      float py = y.get(i);
+      if (px >= left && px <= right && py >= bottom && py <= top) {
+        continue;
+      }
+      float mass = single ? commonMass : getMass(i);
+      float pvx = vx.get(i);
+      if (px < left) {
+        x.put(i, left);
+        pvx = -pvx;
+        impulse += 2.0 * mass * Math.abs(pvx);
+        hits++;
+      } else if (px > right) {
+        float vxRel = pvx - wallVelocity;
+        if (vxRel > 0) {
+          float before = pvx;
+          pvx = wallVelocity - vxRel;
+          impulse += 2.0 * mass * vxRel;
+          energy += 0.5 * mass * ((double) pvx * pvx - (double) before * before);
+          hits++;
+        }
+        x.put(i, right);
+      }
+      vx.put(i, pvx);
+
+      if (py < bottom || py > top) {
+        float pvy = -vy.get(i);
+        vy.put(i, pvy);
+        impulse += 2.0 * mass * Math.abs(pvy);
+        y.put(i, py < bottom ? bottom : top);
+        hits++;
+      }
+    }
+    result[0] += impulse;
+    result[1] += energy;
+    result[2] += hits;
+  }
+
+  @Override
+  public void close() {
+    if (blocks == null) {
+      return;
+    }
+    ByteBuffer[] released = blocks;
+    blocks = null;
+    x = y = vx = vy = dirX = dirY = null;
+    species = id = null;
+    free(released);
+    if (spare != null) {
+      spare.close();
+      spare = null;
+    }
+  }
+}
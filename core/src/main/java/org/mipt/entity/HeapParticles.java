@@ -0,0 +1,264 @@
+package org.mipt.entity;
+
+import java.util.Arrays;
+import org.mipt.dto.MoleculeData;
+
+/** Столбцы молекул в обычных массивах кучи; циклы по всем молекулам идут через {@link ParticleKernels}. */
+public final class HeapParticles extends Particles {
+  private float[] x;
+  private float[] y;
+  private float[] vx;
+  private float[] vy;
+  private float[] dirX;
+  private float[] dirY;
+  private int[] species;
+  private int[] id;
+  // массивы под перестановку, см. permute
+  private HeapParticles spare;
+
+  public HeapParticles(int size, MoleculeData... speciesTable) {
+    super(size, speciesTable);
+    this.x = new float[size];
+    this.y = new float[size];
+    this.vx = new float[size];
+    this.vy = new float[size];
+    this.dirX = new float[size];
+    this.dirY = new float[size];
+    this.species = new int[size];
+    this.id = new int[size];
+    Arrays.fill(dirX, 1);
+    for (int i = 0; i < size; i++) {
+      id[i] = i;
+    }
+  }
+
+  @Override
+  public int capacity() {
+    return x.length;
+  }
+
+  @Override
+  public void ensureCapacity(int capacity) {
+    if (capacity <= x.length) {
+      return;
+    }
+    int length = Math.max(capacity, x.length + x.length / 2);
+    x = Arrays.copyOf(x, length);
+    y = Arrays.copyOf(y, length);
+    vx = Arrays.copyOf(vx, length);
+    vy = Arrays.copyOf(vy, length);
+    int old = dirX.length;
+    dirX = Arrays.copyOf(dirX, length);
+    Arrays.fill(dirX, old, length, 1);
+    dirY = Arrays.copyOf(dirY, length);
+    species = Arrays.copyOf(species, length);
+    id = Arrays.copyOf(id, length);
+  }
+
+  @Override
+  public float getX(int i) {
+    return x[i];
+  }
+
+  @Override
+  public float getY(int i) {
+    return y[i];
+  }
+
+  @Override
+  public float getVx(int i) {
+    return vx[i];
+  }
+
+  @Override
+  public float getVy(int i) {
+    return vy[i];
+  }
+
+  @Override
+  public float getDirX(int i) {
+    return dirX[i];
+  }
+
+  @Override
+  public float getDirY(int i) {
+    return dirY[i];
+  }
+
+  @Override
+  public void setX(int i, float value) {
+    x[i] = value;
+  }
+
+  @Override
+  public void setY(int i, float value) {
+    y[i] = value;
+  }
+
+  @Override
+  public void setVx(int i, float value) {
+    vx[i] = value;
+  }
+
+  @Override
+  public void setVy(int i, float value) {
+    vy[i] = value;
+  }
+
+  @Override
+  public void setPosition(int i, float px, float py) {
+    x[i] = px;
+    y[i] = py;
+  }
+
+  @Override
+  public void setVelocity(int i, float pvx, float pvy) {
+    vx[i] = pvx;
+    vy[i] = pvy;
+  }
+
+  @Override
+  public void setDirection(int i, float dx, float dy) {
+    dirX[i] = dx;
+    dirY[i] = dy;
+  }
+
+  @Override
+  public int getSpecies(int i) {
+    return species[i];
+  }
+
+  @Override
+  public void setSpecies(int i, int speciesIndex) {
+    species[i] = speciesIndex;
+  }
+
+  @Override
+  public int getId(int i) {
+    return id[i];
+  }
+
+  @Override
+  public void setId(int i, int value) {
+    id[i] = value;
+  }
+
+  @Override
+  public void copyFrom(Particles source) {
+    if (!(source instanceof HeapParticles)) {
+      super.copyFrom(source);
+      return;
+    }
+    HeapParticles other = (HeapParticles) source;
+    int size = size();
+    if (other.size() != size) {
+      throw new IllegalArgumentException("Size mismatch: " + other.size() + " != " + size);
+    }
+    System.arraycopy(other.x, 0, x, 0, size);
+    System.arraycopy(other.y, 0, y, 0, size);
+    System.arraycopy(other.vx, 0, vx, 0, size);
+    System.arraycopy(other.vy, 0, vy, 0, size);
+    System.arraycopy(other.dirX, 0, dirX, 0, size);
+    System.arraycopy(other.dirY, 0, dirY, 0, size);
+    System.arraycopy(other.species, 0, species, 0, size);
+    System.arraycopy(other.id, 0, id, 0, size);
+  }
+
+  @Override
+  public void permute(int[] order) {
+    if (spare == null || spare.x.length != x.length) {
+      spare = new HeapParticles(x.length, getSpeciesTable());
+    }
+    gather(x, spare.x, order);
+    gather(y, spare.y, order);
+    gather(vx, spare.vx, order);
+    gather(vy, spare.vy, order);
+    gather(dirX, spare.dirX, order);
+    gather(dirY, spare.dirY, order);
+    for (int i = 0; i < size(); i++) {
+      spare.species[i] = species[order[i]];
+      spare.id[i] = id[order[i]];
+    }
+
+    float[] swap = x;
+    x = spare.x;
+    spare.x = swap;
+    swap = y;
+    y = spare.y;
+    spare.y = swap;
+    swap = vx;
+    vx = spare.vx;
+    spare.vx = swap;
+    swap = vy;
+    vy = spare.vy;
+    spare.vy = swap;
+    swap = dirX;
+    dirX = spare.dirX;
+    spare.dirX = swap;
+    swap = dirY;
+    dirY = spare.dirY;
+    spare.dirY = swap;
+    int[] swapInt = species;
+    species = spare.species;
+    spare.species = swapInt;
+    swapInt = id;
+    id = spare.id;
+    spare.id = swapInt;
+  }
+
+  private void gather(float[] from, float[] to, int[] order) {
+    for (int i = 0; i < size(); i++) {
+      to[i] = from[order[i]];
+    }
+  }
+
+  @Override
+  public void integrate(float dt) {
+    getKernels().integrate(x, y, vx, vy, size(), dt);
+  }
+
+  @Override
+  public void scaleVelocities(float scale) {
+    getKernels().scale(vx, vy, size(), scale);
+  }
+
+  @Override
+  public double totalKineticEnergy() {
+    MoleculeData[] speciesTable = getSpeciesTable();
+    if (speciesTable.length == 1) {
+      return 0.5 * speciesTable[0].mass() * getKernels().sumSquares(vx, vy, size());
+    }
+    double total = 0;
+    for (int i = 0; i < size(); i++) {
+      total += kineticEnergy(i);
+    }
+    return total;
+  }
+
+  @Override
+  public double maxSpeed() {
+    return Math.sqrt(getKernels().maxSquare(vx, vy, size()));
+  }
+
+  /** Для смеси видов с разной массой идёт скалярный путь. */
+  @Override
+  public void reflectWalls(
+      float left,
+      float right,
+      float bottom,
+      float top,
+      float wallVelocity,
+      double[] result) {
+    MoleculeData[] speciesTable = getSpeciesTable();
+    if (speciesTable.length == 1) {
+      getKernels().reflectWalls(
+          x, y, vx, vy, size(), speciesTable[0].mass(), left, right, bottom, top, wallVelocity,
+          result);
+      return;
+    }
+    for (int i = 0; i < size(); i++) {
+      ScalarKernels.reflectWalls(
+          i, i + 1, x, y, vx, vy, getMass(i), left, right, bottom, top, wallVelocity, result);
+    }
+  }
+}
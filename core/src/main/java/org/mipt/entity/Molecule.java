@@ -3,18 +3,19 @@ package org.mipt.entity;
 import com.badlogic.gdx.math.Vector2;
 import org.mipt.dto.MoleculeData;
 
+/**
+ * Представление одной молекулы поверх {@link Particles}; само состояние хранится в массивах.
+ * Представление привязано к месту в массивах, а не к молекуле: после {@link Particles#permute} на
+ * этом месте может оказаться другая, её постоянный номер даёт {@link #getId}.
+ */
 public class Molecule {
-  private float mass;
-  private int numberOfAtoms;
-  private int degreesOfFreedom;
-  private float diameter;
-  private float halfBoundLength;
-  private Vector2 velocity;
-  private float kineticEnergy;
-  private Vector2 position;
-  private Vector2 direction;
-
-  public Molecule() {}
+  private final Particles particles;
+  private final int index;
+
+  public Molecule(Particles particles, int index) {
+    this.particles = particles;
+    this.index = index;
+  }
 
   public Molecule(
       float mass,
@@ -25,74 +26,68 @@ public class Molecule {
       Vector2 velocity,
       float kineticEnergy,
       Vector2 position) {
-    this.mass = mass;
-    this.numberOfAtoms = numberOfAtoms;
-    this.degreesOfFreedom = degreesOfFreedom;
-    this.diameter = diameter;
-    this.halfBoundLength = halfBoundLength;
-    this.velocity = velocity;
-    this.kineticEnergy = kineticEnergy;
-    this.position = position;
-    this.direction = new Vector2(1, 0);
+    this(
+        new MoleculeData(mass, numberOfAtoms, degreesOfFreedom, diameter, halfBoundLength),
+        velocity,
+        kineticEnergy,
+        position);
   }
 
   public Molecule(MoleculeData data, Vector2 velocity, float kineticEnergy, Vector2 position) {
-    this.mass = data.mass();
-    this.numberOfAtoms = data.numberOfAtoms();
-    this.degreesOfFreedom = data.degreesOfFreedom();
-    this.diameter = data.diameter();
-    this.halfBoundLength = data.halfBoundLength();
-    this.velocity = velocity;
-    this.kineticEnergy = kineticEnergy;
-    this.position = position;
-    this.direction = new Vector2(1, 0);
+    this(Particles.heap(1, data), 0);
+    setVelocity(velocity);
+    setPosition(position);
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public int getId() {
+    return particles.getId(index);
   }
 
   public float getMass() {
-    return mass;
+    return particles.getMass(index);
   }
 
   public int getNumberOfAtoms() {
-    return numberOfAtoms;
+    return particles.getSpeciesData(index).numberOfAtoms();
   }
 
   public int getDegreesOfFreedom() {
-    return degreesOfFreedom;
+    return particles.getSpeciesData(index).degreesOfFreedom();
   }
 
   public float getDiameter() {
-    return diameter;
+    return particles.getDiameter(index);
   }
 
   public Vector2 getVelocity() {
-    return velocity;
+    return new Vector2(particles.getVx(index), particles.getVy(index));
   }
 
   public float getKineticEnergy() {
-    return kineticEnergy;
+    return (float) particles.kineticEnergy(index);
   }
 
   public Vector2 getPosition() {
-    return position;
+    return new Vector2(particles.getX(index), particles.getY(index));
   }
 
   public float getHalfBoundLength() {
-    return halfBoundLength;
+    return particles.getHalfBoundLength(index);
   }
 
   public Vector2 getDirection() {
-    return direction;
+    return new Vector2(particles.getDirX(index), particles.getDirY(index));
   }
 
   public void setVelocity(Vector2 velocity) {
-    this.velocity = velocity;
-  }
-
-  public void updateKineticEnergy() {
-    this.kineticEnergy = (float) (0.5f * mass * velocity.len2());
+    particles.setVelocity(index, velocity.x, velocity.y);
   }
 
   public void setPosition(Vector2 position) {
-    this.position = position;
+    particles.setPosition(index, position.x, position.y);
   }
 }
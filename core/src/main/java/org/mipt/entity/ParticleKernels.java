@@ -0,0 +1,73 @@
+package org.mipt.entity;
+
+/**
+ * Циклы по всем молекулам, которые не зависят друг от друга между молекулами: сдвиг, масштаб
+ * скоростей, кинетическая энергия и отражение от стенок. Есть скалярная реализация и векторная на
+ * {@code jdk.incubator.vector}; вторая доступна, только если JVM запущена с {@code --add-modules
+ * jdk.incubator.vector}.
+ *
+ * <p>Реализация выбирается системным свойством {@code mipt.kernels}: {@code scalar}, {@code
+ * vector} или {@code auto} (по умолчанию — векторная, если модуль подключён).
+ */
+public interface ParticleKernels {
+  ParticleKernels SCALAR = new ScalarKernels();
+  ParticleKernels DEFAULT = byName(System.getProperty("mipt.kernels", "auto"));
+
+  String name();
+
+  void integrate(float[] x, float[] y, float[] vx, float[] vy, int size, float dt);
+
+  void scale(float[] vx, float[] vy, int size, float factor);
+
+  /** Сумма {@code vx^2 + vy^2}; накапливается в double, чтобы не терять точность на больших N. */
+  double sumSquares(float[] vx, float[] vy, int size);
+
+  /** Наибольший {@code vx^2 + vy^2} (в float, как и в скалярном цикле); 0 для пустого набора. */
+  float maxSquare(float[] vx, float[] vy, int size);
+
+  /**
+   * Отражает молекулы одинаковой массы от стенок сосуда: левая, нижняя и верхняя неподвижны,
+   * правая движется со скоростью {@code wallVelocity}. Вышедшие за стенку молекулы возвращаются на
+   * неё. В {@code result[0]} добавляется импульс, переданный стенкам, в {@code result[1]} —
+   * изменение кинетической энергии от ударов о движущуюся стенку, в {@code result[2]} — число
+   * ударов (молекула в углу ударяется дважды).
+   */
+  void reflectWalls(
+      float[] x,
+      float[] y,
+      float[] vx,
+      float[] vy,
+      int size,
+      float mass,
+      float left,
+      float right,
+      float bottom,
+      float top,
+      float wallVelocity,
+      double[] result);
+
+  /**
+   * Реализация по имени. Если векторная недоступна, {@code auto} молча даёт скалярную, а {@code
+   * vector} бросает {@link IllegalStateException}.
+   */
+  static ParticleKernels byName(String name) {
+    switch (name) {
+      case "scalar":
+        return SCALAR;
+      case "vector":
+      case "auto":
+        try {
+          return (ParticleKernels)
+              Class.forName("org.mipt.entity.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+          if (name.equals("auto")) {
+            return SCALAR;
+          }
+          throw new IllegalStateException(
+              "Vector kernels need --add-modules jdk.incubator.vector", e);
+        }
+      default:
+        throw new IllegalArgumentException("Unknown kernels: " + name);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package org.mipt.entity;
+
+import org.mipt.dto.MoleculeData;
+
+/**
+ * Хранилище состояния молекул в виде структуры массивов: координаты, скорости и направления лежат
+ * в плоских float-столбцах, а масса, диаметр и длина связи берутся из общей таблицы видов.
+ *
+ * <p>Столбцы лежат либо в куче ({@link HeapParticles}), либо вне её ({@link DirectParticles}) —
+ * тогда куча не растёт с числом молекул, а состояние можно отобразить прямо из файла контрольной
+ * точки. Хранилище вне кучи освобождается явно через {@link #close}; у хранилища в куче закрытие
+ * ничего не делает.
+ *
+ * <p>Порядок молекул в столбцах может меняться (см. {@link #permute}), поэтому у каждой есть
+ * постоянный номер {@link #getId}, по которому её можно проследить между шагами.
+ *
+ * <p>Число молекул может меняться в пределах выделенной ёмкости (см. {@link #setSize}): так
+ * распределённый движок принимает и отдаёт молекулы соседям по сосуду.
+ */
+public abstract class Particles implements AutoCloseable {
+  /** Хранилище в куче, см. {@link #create}. */
+  public static final String HEAP = "heap";
+  /** Хранилище вне кучи, см. {@link #create}. */
+  public static final String DIRECT = "direct";
+
+  private int size;
+  private final MoleculeData[] speciesTable;
+  private ParticleKernels kernels = ParticleKernels.DEFAULT;
+
+  protected Particles(int size, MoleculeData[] speciesTable) {
+    this.size = size;
+    this.speciesTable = speciesTable;
+  }
+
+  /** Хранилище в куче на {@code size} молекул. */
+  public static Particles heap(int size, MoleculeData... speciesTable) {
+    return new HeapParticles(size, speciesTable);
+  }
+
+  /** Хранилище вне кучи на {@code size} молекул. */
+  public static Particles direct(int size, MoleculeData... speciesTable) {
+    return new DirectParticles(size, speciesTable);
+  }
+
+  /** Хранилище по имени из настроек: {@link #DIRECT} или {@link #HEAP} (и {@code null}). */
+  public static Particles create(String storage, int size, MoleculeData... speciesTable) {
+    if (storage == null || storage.equals(HEAP)) {
+      return heap(size, speciesTable);
+    }
+    if (storage.equals(DIRECT)) {
+      return direct(size, speciesTable);
+    }
+    throw new IllegalArgumentException("Unknown storage: " + storage);
+  }
+
+  /** Лежат ли столбцы хранилища {@code storage} вне кучи. */
+  public static boolean isDirect(String storage) {
+    return DIRECT.equals(storage);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Сколько молекул помещается без перевыделения столбцов. */
+  public abstract int capacity();
+
+  /**
+   * Меняет число молекул в пределах {@link #capacity}. Молекулы за новой границей не стираются,
+   * но их поля считаются неопределёнными.
+   */
+  public void setSize(int size) {
+    if (size < 0 || size > capacity()) {
+      throw new IllegalArgumentException("Size " + size + " out of capacity " + capacity());
+    }
+    this.size = size;
+  }
+
+  /** Расширяет столбцы до ёмкости не меньше {@code capacity}, сохраняя молекулы. */
+  public abstract void ensureCapacity(int capacity);
+
+  public abstract float getX(int i);
+
+  public abstract float getY(int i);
+
+  public abstract float getVx(int i);
+
+  public abstract float getVy(int i);
+
+  public abstract float getDirX(int i);
+
+  public abstract float getDirY(int i);
+
+  public abstract void setX(int i, float value);
+
+  public abstract void setY(int i, float value);
+
+  public abstract void setVx(int i, float value);
+
+  public abstract void setVy(int i, float value);
+
+  public abstract void setPosition(int i, float px, float py);
+
+  public abstract void setVelocity(int i, float pvx, float pvy);
+
+  public abstract void setDirection(int i, float dx, float dy);
+
+  public abstract int getSpecies(int i);
+
+  public abstract void setSpecies(int i, int speciesIndex);
+
+  /** Постоянный номер молекулы; не меняется при перестановках и переходах между хранилищами. */
+  public abstract int getId(int i);
+
+  public abstract void setId(int i, int value);
+
+  public MoleculeData getSpeciesData(int i) {
+    return speciesTable[getSpecies(i)];
+  }
+
+  public MoleculeData[] getSpeciesTable() {
+    return speciesTable;
+  }
+
+  public float getMass(int i) {
+    return speciesTable[getSpecies(i)].mass();
+  }
+
+  public float getDiameter(int i) {
+    return speciesTable[getSpecies(i)].diameter();
+  }
+
+  public float getHalfBoundLength(int i) {
+    return speciesTable[getSpecies(i)].halfBoundLength();
+  }
+
+  public double kineticEnergy(int i) {
+    double vx = getVx(i);
+    double vy = getVy(i);
+    return 0.5 * getMass(i) * (vx * vx + vy * vy);
+  }
+
+  /**
+   * Копирует координаты, скорости, направления, виды и номера из хранилища того же размера. Между
+   * хранилищами одного рода копируются столбцы целиком.
+   */
+  public void copyFrom(Particles other) {
+    if (other.size != size) {
+      throw new IllegalArgumentException("Size mismatch: " + other.size + " != " + size);
+    }
+    for (int i = 0; i < size; i++) {
+      copy(i, other, i);
+    }
+  }
+
+  /** Копирует молекулу {@code j} хранилища {@code other} на место {@code i}. */
+  public void copy(int i, Particles other, int j) {
+    setPosition(i, other.getX(j), other.getY(j));
+    setVelocity(i, other.getVx(j), other.getVy(j));
+    setDirection(i, other.getDirX(j), other.getDirY(j));
+    setSpecies(i, other.getSpecies(j));
+    setId(i, other.getId(j));
+  }
+
+  /**
+   * Переставляет молекулы: новая {@code i}-я — прежняя {@code order[i]}, {@code order} — перестановка
+   * {@code [0, size)}. Стоит O(N) и держит второй набор столбцов, чтобы не выделять его каждый раз.
+   */
+  public abstract void permute(int[] order);
+
+  /** Ядра для циклов по столбцам в куче; хранилище вне кучи считает скалярными циклами. */
+  public ParticleKernels getKernels() {
+    return kernels;
+  }
+
+  public void setKernels(ParticleKernels kernels) {
+    this.kernels = kernels;
+  }
+
+  /** Сдвигает все молекулы на {@code velocity * dt}. */
+  public abstract void integrate(float dt);
+
+  /** Умножает все скорости на {@code scale}. */
+  public abstract void scaleVelocities(float scale);
+
+  public abstract double totalKineticEnergy();
+
+  /** Наибольшая скорость среди молекул, м/с; 0, если их нет. */
+  public abstract double maxSpeed();
+
+  /**
+   * Отражает молекулы от стенок прямоугольника с движущейся правой стенкой, см. {@link
+   * ParticleKernels#reflectWalls}.
+   */
+  public abstract void reflectWalls(
+      float left,
+      float right,
+      float bottom,
+      float top,
+      float wallVelocity,
+      double[] result);
+
+  /**
+   * Возвращает вышедшие молекулы в ящик {@code [left, left + width) x [bottom, bottom + height)}
+   * сдвигом на целое число периодов; для периодических границ.
+   */
+  public void wrap(float left, float bottom, float width, float height) {
+    float right = left + width;
+    float top = bottom + height;
+    for (int i = 0; i < size; i++) {
+      float x = getX(i);
+      float y = getY(i);
+      if (x >= left && x < right && y >= bottom && y < top) {
+        continue;
+      }
+      x -= width * (float) Math.floor((x - left) / width);
+      y -= height * (float) Math.floor((y - bottom) / height);
+      // округление может оставить молекулу ровно на дальней границе
+      setPosition(i, x < right ? x : left, y < top ? y : bottom);
+    }
+  }
+
+  /** Освобождает столбцы; после закрытия хранилищем пользоваться нельзя. */
+  @Override
+  public void close() {}
+}
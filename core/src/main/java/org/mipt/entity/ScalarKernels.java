@@ -0,0 +1,107 @@
+package org.mipt.entity;
+
+final class ScalarKernels implements ParticleKernels {
+  @Override
+  public String name() {
+    return "scalar";
+  }
+
+  @Override
+  public void integrate(float[] x, float[] y, float[] vx, float[] vy, int size, float dt) {
+    for (int i = 0; i < size; i++) {
+      x[i] += vx[i] * dt;
+      y[i] += vy[i] * dt;
+    }
+  }
+
+  @Override
+  public void scale(float[] vx, float[] vy, int size, float factor) {
+    for (int i = 0; i < size; i++) {
+      vx[i] *= factor;
+      vy[i] *= factor;
+    }
+  }
+
+  @Override
+  public double sumSquares(float[] vx, float[] vy, int size) {
+    double total = 0;
+    for (int i = 0; i < size; i++) {
+      total += (double) vx[i] * vx[i] + (double) vy[i] * vy[i];
+    }
+    return total;
+  }
+
+  @Override
+  public float maxSquare(float[] vx, float[] vy, int size) {
+    float max = 0;
+    for (int i = 0; i < size; i++) {
+      max = Math.max(max, vx[i] * vx[i] + vy[i] * vy[i]);
+    }
+    return max;
+  }
+
+  @Override
+  public void reflectWalls(
+      float[] x,
+      float[] y,
+      float[] vx,
+      float[] vy,
+      int size,
+      float mass,
+      float left,
+      float right,
+      float bottom,
+      float top,
+      float wallVelocity,
+      double[] result) {
+    reflectWalls(0, size, x, y, vx, vy, mass, left, right, bottom, top, wallVelocity, result);
+  }
+
+  /** То же для молекул {@code [from, to)}; векторные ядра досчитывают им хвост. */
+  static void reflectWalls(
+      int from,
+      int to,
+      float[] x,
+      float[] y,
+      float[] vx,
+      float[] vy,
+      float mass,
+      float left,
+      float right,
+      float bottom,
+      float top,
+      float wallVelocity,
+      double[] result) {
+    double impulse = 0;
+    double energy = 0;
+    int hits = 0;
+    for (int i = from; i < to; i++) {
+      if (x[i] < left) {
+        x[i] = left;
+        vx[i] = -vx[i];
+        impulse += 2.0 * mass * Math.abs(vx[i]);
+        hits++;
+      } else if (x[i] > right) {
+        float vxRel = vx[i] - wallVelocity;
+        if (vxRel > 0) {
+          float before = vx[i];
+          vx[i] = wallVelocity - vxRel;
+          impulse += 2.0 * mass * vxRel;
+          energy += 0.5 * mass * ((double) vx[i] * vx[i] - (double) before * before);
+          hits++;
+        }
+        x[i] = right;
+      }
+
+      if (y[i] < bottom || y[i] > top) {
+        vy[i] = -vy[i];
+        impulse += 2.0 * mass * Math.abs(vy[i]);
+        y[i] = y[i] < bottom ? bottom : top;
+        hits++;
+      }
+    }
+    result[0] += impulse;
+    result[1] += energy;
+    result[2] += hits;
+  }
+}
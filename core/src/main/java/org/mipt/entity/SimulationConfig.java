@@ -1,5 +1,7 @@
 package org.mipt.entity;
 
+import com.google.gson.Gson;
+import java.io.Reader;
 import org.mipt.dto.MoleculeData;
 import org.mipt.dto.SimulationSettings;
 import org.mipt.dto.VesselData;
@@ -8,4 +10,8 @@ public class SimulationConfig {
   public SimulationSettings simulation;
   public VesselData vessel;
   public MoleculeData molecule;
+
+  public static SimulationConfig fromJson(Reader reader) {
+    return new Gson().fromJson(reader, SimulationConfig.class);
+  }
 }
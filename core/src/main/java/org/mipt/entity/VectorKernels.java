@@ -0,0 +1,175 @@
+package org.mipt.entity;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Векторные ядра на {@code jdk.incubator.vector} с шириной, предпочтительной для процессора.
+ * Ветвления заменены масками, сдвиг считается без fma, чтобы совпадать со скалярным побитно.
+ * Слагаемые сумм переводятся в double до сложения и копятся в векторе double той же ширины, как
+ * в скалярном цикле; от него суммы отличаются только порядком сложения. Хвост короче вектора
+ * досчитывает {@link ScalarKernels}.
+ */
+final class VectorKernels implements ParticleKernels {
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+  // вдвое меньше дорожек: вектор float расширяется в два вектора double
+  private static final VectorSpecies<Double> DOUBLES = SPECIES.withLanes(double.class);
+
+  @Override
+  public String name() {
+    return "vector" + SPECIES.length();
+  }
+
+  @Override
+  public void integrate(float[] x, float[] y, float[] vx, float[] vy, int size, float dt) {
+    int bound = SPECIES.loopBound(size);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector.fromArray(SPECIES, x, i)
+          .add(FloatVector.fromArray(SPECIES, vx, i).mul(dt))
+          .intoArray(x, i);
+      FloatVector.fromArray(SPECIES, y, i)
+          .add(FloatVector.fromArray(SPECIES, vy, i).mul(dt))
+          .intoArray(y, i);
+    }
+    for (; i < size; i++) {
+      x[i] += vx[i] * dt;
+      y[i] += vy[i] * dt;
+    }
+  }
+
+  @Override
+  public void scale(float[] vx, float[] vy, int size, float factor) {
+    int bound = SPECIES.loopBound(size);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector.fromArray(SPECIES, vx, i).mul(factor).intoArray(vx, i);
+      FloatVector.fromArray(SPECIES, vy, i).mul(factor).intoArray(vy, i);
+    }
+    for (; i < size; i++) {
+      vx[i] *= factor;
+      vy[i] *= factor;
+    }
+  }
+
+  @Override
+  public double sumSquares(float[] vx, float[] vy, int size) {
+    int bound = SPECIES.loopBound(size);
+    DoubleVector sum = DoubleVector.zero(DOUBLES);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector a = FloatVector.fromArray(SPECIES, vx, i);
+      FloatVector b = FloatVector.fromArray(SPECIES, vy, i);
+      sum = addSquares(sum, a, b, 1);
+    }
+    double total = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < size; i++) {
+      total += (double) vx[i] * vx[i] + (double) vy[i] * vy[i];
+    }
+    return total;
+  }
+
+  /** {@code sum + a^2 + sign * b^2} по дорожкам, квадраты и сумма в double. */
+  private static DoubleVector addSquares(DoubleVector sum, FloatVector a, FloatVector b, int sign) {
+    for (int part = 0; part < 2; part++) {
+      DoubleVector wideA = widen(a, part);
+      DoubleVector wideB = widen(b, part);
+      DoubleVector squareA = wideA.mul(wideA);
+      DoubleVector squareB = wideB.mul(wideB);
+      sum = sum.add(sign > 0 ? squareA.add(squareB) : squareA.sub(squareB));
+    }
+    return sum;
+  }
+
+  /** {@code sum + v} по дорожкам в double. */
+  private static DoubleVector addWide(DoubleVector sum, FloatVector v) {
+    return sum.add(widen(v, 0)).add(widen(v, 1));
+  }
+
+  private static DoubleVector widen(FloatVector v, int part) {
+    return (DoubleVector) v.convertShape(VectorOperators.F2D, DOUBLES, part);
+  }
+
+  @Override
+  public float maxSquare(float[] vx, float[] vy, int size) {
+    int bound = SPECIES.loopBound(size);
+    FloatVector max = FloatVector.zero(SPECIES);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector a = FloatVector.fromArray(SPECIES, vx, i);
+      FloatVector b = FloatVector.fromArray(SPECIES, vy, i);
+      max = max.max(a.mul(a).add(b.mul(b)));
+    }
+    float result = max.reduceLanes(VectorOperators.MAX);
+    for (; i < size; i++) {
+      result = Math.max(result, vx[i] * vx[i] + vy[i] * vy[i]);
+    }
+    return result;
+  }
+
+  @Override
+  public void reflectWalls(
+      float[] x,
+      float[] y,
+      float[] vx,
+      float[] vy,
+      int size,
+      float mass,
+      float left,
+      float right,
+      float bottom,
+      float top,
+      float wallVelocity,
+      double[] result) {
+    int bound = SPECIES.loopBound(size);
+    FloatVector zero = FloatVector.zero(SPECIES);
+    // Копим в double сумму |v| и сумму (v'^2 - v^2), множители массы применяем в конце
+    DoubleVector speed = DoubleVector.zero(DOUBLES);
+    DoubleVector energy = DoubleVector.zero(DOUBLES);
+    int hits = 0;
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector px = FloatVector.fromArray(SPECIES, x, i);
+      FloatVector py = FloatVector.fromArray(SPECIES, y, i);
+      FloatVector pvx = FloatVector.fromArray(SPECIES, vx, i);
+      FloatVector pvy = FloatVector.fromArray(SPECIES, vy, i);
+
+      VectorMask<Float> pastLeft = px.compare(VectorOperators.LT, left);
+      VectorMask<Float> pastRight = px.compare(VectorOperators.GT, right);
+      VectorMask<Float> pastBottom = py.compare(VectorOperators.LT, bottom);
+      VectorMask<Float> pastTop = py.compare(VectorOperators.GT, top);
+      VectorMask<Float> pastY = pastBottom.or(pastTop);
+      if (!pastLeft.or(pastRight).or(pastY).anyTrue()) {
+        continue;
+      }
+
+      FloatVector relative = pvx.sub(wallVelocity);
+      VectorMask<Float> hitRight = pastRight.and(relative.compare(VectorOperators.GT, 0));
+      FloatVector reflectedRight = relative.neg().add(wallVelocity);
+      energy =
+          addSquares(energy, zero.blend(reflectedRight, hitRight), zero.blend(pvx, hitRight), -1);
+      speed = addWide(speed, zero.blend(pvx.abs(), pastLeft));
+      speed = addWide(speed, zero.blend(relative, hitRight));
+      speed = addWide(speed, zero.blend(pvy.abs(), pastY));
+      hits += pastLeft.trueCount() + hitRight.trueCount() + pastY.trueCount();
+
+      pvx = pvx.blend(pvx.neg(), pastLeft).blend(reflectedRight, hitRight);
+      px = px.blend(left, pastLeft).blend(right, pastRight);
+      pvy = pvy.blend(pvy.neg(), pastY);
+      py = py.blend(bottom, pastBottom).blend(top, pastTop);
+      px.intoArray(x, i);
+      py.intoArray(y, i);
+      pvx.intoArray(vx, i);
+      pvy.intoArray(vy, i);
+    }
+    result[0] += 2.0 * mass * speed.reduceLanes(VectorOperators.ADD);
+    result[1] += 0.5 * mass * energy.reduceLanes(VectorOperators.ADD);
+    result[2] += hits;
+
+    ScalarKernels.reflectWalls(
+        i, size, x, y, vx, vy, mass, left, right, bottom, top, wallVelocity, result);
+  }
+}
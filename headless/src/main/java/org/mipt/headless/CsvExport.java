@@ -0,0 +1,34 @@
+package org.mipt.headless;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.mipt.ObservablesLog;
+
+/**
+ * Переводит двоичный журнал наблюдаемых в CSV. Аргументы: {@code input.obs [output.csv]}; по
+ * умолчанию рядом с журналом с расширением {@code .csv}.
+ */
+public class CsvExport {
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      throw new IllegalArgumentException("Usage: CsvExport input.obs [output.csv]");
+    }
+    Path input = Path.of(args[0]);
+    Path output;
+    if (args.length == 2) {
+      output = Path.of(args[1]);
+    } else {
+      String name = input.getFileName().toString();
+      int dot = name.lastIndexOf('.');
+      output = input.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".csv");
+    }
+
+    try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      ObservablesLog.exportCsv(input, out);
+    }
+    System.out.println("Wrote " + output);
+  }
+}
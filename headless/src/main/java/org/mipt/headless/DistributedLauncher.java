@@ -0,0 +1,190 @@
+package org.mipt.headless;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.mipt.ObservablesLog;
+import org.mipt.SimulationDriver;
+import org.mipt.StepProfiler;
+import org.mipt.distributed.Communicator;
+import org.mipt.distributed.SlabEngine;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Распределённый консольный запуск: сосуд делится на полосы по x, каждой полосой занимается свой
+ * процесс, см. {@link SlabEngine}. Два режима:
+ *
+ * <ul>
+ *   <li>{@code --rank r --hosts host:port,host:port,...} — один ранг; адреса всех рангов
+ *       перечисляются по порядку, одинаково на всех машинах;
+ *   <li>{@code --ranks R [--port P]} — поднимает {@code R} рангов локальными процессами с портами
+ *       {@code P, P + 1, ...} и ждёт их завершения.
+ * </ul>
+ *
+ * Остальные аргументы как у {@link HeadlessLauncher}: {@code [--config path] (--steps N | --time
+ * seconds) [--output prefix]}; по умолчанию конфиг {@code config/distributed.json}. Наблюдаемые
+ * пишет ранг 0 в {@code prefix.obs}. Контрольных точек у распределённого запуска нет: {@link
+ * SlabEngine} не {@link org.mipt.RestorableEngine}. Поэтому конфиг с ненулевым {@code
+ * checkpointStride} отвергается сразу, до запуска рангов.
+ */
+public class DistributedLauncher {
+  private static final int DEFAULT_PORT = 47100;
+  private static final long CONNECT_TIMEOUT_MILLIS = 60_000;
+  private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path configPath = Path.of("config/distributed.json");
+    String output = "dataset";
+    long steps = -1;
+    double time = -1;
+    int rank = -1;
+    String hosts = null;
+    int ranks = -1;
+    int port = DEFAULT_PORT;
+    List<String> passThrough = new ArrayList<>();
+
+    if (args.length % 2 != 0) {
+      throw new IllegalArgumentException("Missing value for " + args[args.length - 1]);
+    }
+    for (int i = 0; i < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--config" -> configPath = Path.of(value);
+        case "--steps" -> steps = Long.parseLong(value);
+        case "--time" -> time = Double.parseDouble(value);
+        case "--output" -> output = value;
+        case "--rank" -> rank = Integer.parseInt(value);
+        case "--hosts" -> hosts = value;
+        case "--ranks" -> ranks = Integer.parseInt(value);
+        case "--port" -> port = Integer.parseInt(value);
+        default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+      // локальный запуск передаёт рангам всё, кроме своих параметров
+      if (!args[i].equals("--ranks") && !args[i].equals("--port")) {
+        passThrough.add(args[i]);
+        passThrough.add(value);
+      }
+    }
+    if ((steps < 0) == (time < 0)) {
+      throw new IllegalArgumentException("Specify exactly one of --steps or --time");
+    }
+
+    SimulationConfig config;
+    try (Reader reader = Files.newBufferedReader(configPath, StandardCharsets.UTF_8)) {
+      config = SimulationConfig.fromJson(reader);
+    }
+    if (config.simulation.checkpointStride() > 0) {
+      throw new IllegalArgumentException(
+          "Distributed runs cannot write checkpoints; set checkpointStride to 0 in " + configPath);
+    }
+
+    if (ranks > 0) {
+      System.exit(launchLocal(ranks, port, passThrough));
+    }
+    if (rank < 0 || hosts == null) {
+      throw new IllegalArgumentException("Specify --ranks, or --rank with --hosts");
+    }
+
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for (String host : hosts.split(",")) {
+      int colon = host.lastIndexOf(':');
+      addresses.add(
+          new InetSocketAddress(host.substring(0, colon), Integer.parseInt(host.substring(colon + 1))));
+    }
+    run(config, Communicator.connect(rank, addresses, CONNECT_TIMEOUT_MILLIS), steps, time, output);
+  }
+
+  /** Запускает ранги дочерними процессами с той же JVM и classpath; код выхода — худший из них. */
+  private static int launchLocal(int ranks, int port, List<String> args)
+      throws IOException, InterruptedException {
+    StringBuilder hosts = new StringBuilder();
+    for (int r = 0; r < ranks; r++) {
+      hosts.append(r > 0 ? "," : "").append("127.0.0.1:").append(port + r);
+    }
+    Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+    List<Process> processes = new ArrayList<>();
+    for (int r = 0; r < ranks; r++) {
+      List<String> command = new ArrayList<>();
+      command.add(java.toString());
+      command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(DistributedLauncher.class.getName());
+      command.addAll(args);
+      command.add("--rank");
+      command.add(Integer.toString(r));
+      command.add("--hosts");
+      command.add(hosts.toString());
+      processes.add(new ProcessBuilder(command).inheritIO().start());
+    }
+
+    int status = 0;
+    for (Process process : processes) {
+      int code = process.waitFor();
+      if (code != 0 && status == 0) {
+        status = code;
+        // упавший ранг оставит остальных ждать его сообщений
+        processes.forEach(Process::destroy);
+      }
+    }
+    return status;
+  }
+
+  private static void run(
+      SimulationConfig config, Communicator comm, long steps, double time, String output)
+      throws IOException {
+    SlabEngine engine = new SlabEngine(config, comm);
+    SimulationDriver driver = new SimulationDriver(config, engine);
+    if (config.simulation.profileStride() > 0) {
+      String prefix = "rank " + comm.rank() + " ";
+      driver.setProfiler(
+          new StepProfiler(config.simulation.profileStride(), line -> System.out.println(prefix + line)));
+    }
+    ObservablesLog log =
+        comm.isFirst()
+            ? ObservablesLog.attach(driver, Path.of(output + ".obs"), config.simulation.logStride())
+            : null;
+
+    long start = System.nanoTime();
+    long lastReport = start;
+    try {
+      // условие одинаково на всех рангах: шаг и время у драйверов совпадают
+      while (steps >= 0 ? driver.getStep() < steps : driver.getTime() < time) {
+        driver.step();
+        long now = System.nanoTime();
+        if (comm.isFirst() && now - lastReport > PROGRESS_INTERVAL_NANOS) {
+          lastReport = now;
+          System.out.printf(
+              "step %d  t=%.3e s  %s  T=%.3f K  P=%.4e Pa  %.1f steps/s%n",
+              driver.getStep(),
+              driver.getTime(),
+              driver.getPhase(),
+              driver.getTemperature(),
+              driver.getPressure(),
+              driver.getStep() / ((now - start) / 1e9));
+        }
+      }
+    } finally {
+      if (log != null) {
+        log.close();
+      }
+      driver.dispose();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf(
+        "Rank %d of %d: %d molecules at the end%n",
+        comm.rank(), comm.size(), engine.getParticles().size());
+    if (comm.isFirst()) {
+      System.out.printf(
+          "Done: %d steps in %.2f s (%.1f steps/s), t=%.3e s%n",
+          driver.getStep(), seconds, driver.getStep() / seconds, driver.getTime());
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package org.mipt.headless;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.mipt.Checkpoint;
+import org.mipt.CheckpointWriter;
+import org.mipt.EquilibriumMonitor;
+import org.mipt.ObservablesLog;
+import org.mipt.Physics;
+import org.mipt.SimulationDriver;
+import org.mipt.StepProfiler;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Консольный запуск без окна и OpenGL. Аргументы: {@code [--config path] (--steps N | --time
+ * seconds) [--output prefix] [--restart checkpoint]}; наблюдаемые пишутся в {@code prefix.obs},
+ * контрольные точки — в {@code prefix.ckpt}. Число шагов и время считаются с начала исходного
+ * запуска, в том числе после рестарта. При {@code profileStride > 0} в конфиге раз в столько шагов
+ * печатается профиль шага, см. {@link StepProfiler}. При {@code blockSteps > 0} по концу каждой
+ * выдержки печатаются шаги до равновесия и средние по блокам, см. {@link EquilibriumMonitor}.
+ */
+public class HeadlessLauncher {
+  private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+  public static void main(String[] args) throws IOException {
+    Path configPath = Path.of("config/simulation.json");
+    String output = "dataset";
+    long steps = -1;
+    double time = -1;
+    Path restartFrom = null;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--config" -> configPath = Path.of(args[++i]);
+        case "--steps" -> steps = Long.parseLong(args[++i]);
+        case "--time" -> time = Double.parseDouble(args[++i]);
+        case "--output" -> output = args[++i];
+        case "--restart" -> restartFrom = Path.of(args[++i]);
+        default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+    if ((steps < 0) == (time < 0)) {
+      throw new IllegalArgumentException("Specify exactly one of --steps or --time");
+    }
+
+    SimulationConfig config;
+    try (Reader reader = Files.newBufferedReader(configPath, StandardCharsets.UTF_8)) {
+      config = SimulationConfig.fromJson(reader);
+    }
+
+    SimulationDriver driver;
+    if (restartFrom != null) {
+      try (Checkpoint checkpoint = Checkpoint.read(restartFrom, config)) {
+        driver = checkpoint.restore(config);
+      }
+    } else {
+      driver = SimulationDriver.create(config);
+    }
+    if (config.simulation.profileStride() > 0) {
+      driver.setProfiler(new StepProfiler(config.simulation.profileStride(), System.out::println));
+    }
+    if (driver.getEquilibriumMonitor() != null) {
+      driver.addListener(new HoldReport());
+    }
+    ObservablesLog log =
+        ObservablesLog.attach(driver, Path.of(output + ".obs"), config.simulation.logStride());
+    CheckpointWriter checkpoints = null;
+    if (config.simulation.checkpointStride() > 0) {
+      checkpoints =
+          new CheckpointWriter(
+              config, Path.of(output + ".ckpt"), config.simulation.checkpointStride());
+      driver.addListener(checkpoints);
+    }
+
+    long firstStep = driver.getStep();
+    long start = System.nanoTime();
+    long lastReport = start;
+    try {
+      while (steps >= 0 ? driver.getStep() < steps : driver.getTime() < time) {
+        driver.step();
+        long now = System.nanoTime();
+        if (now - lastReport > PROGRESS_INTERVAL_NANOS) {
+          lastReport = now;
+          System.out.printf(
+              "step %d  t=%.3e s  %s  T=%.3f K  P=%.4e Pa  %.1f steps/s%n",
+              driver.getStep(),
+              driver.getTime(),
+              driver.getPhase(),
+              driver.getTemperature(),
+              driver.getPressure(),
+              (driver.getStep() - firstStep) / ((now - start) / 1e9));
+        }
+      }
+    } finally {
+      if (checkpoints != null) {
+        checkpoints.close();
+      }
+      log.close();
+      driver.dispose();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long done = driver.getStep() - firstStep;
+    System.out.printf(
+        "Done: %d steps in %.2f s (%.1f steps/s), t=%.3e s%n",
+        done, seconds, done / seconds, driver.getTime());
+    if (driver.getEngine() instanceof Physics physics) {
+      System.out.printf("Collisions: %.3f ms/step%n", physics.getCollisionNanos() / 1e6 / done);
+      if (config.simulation.verletSkin() > 0) {
+        long builds = physics.getNeighborListBuilds();
+        System.out.printf(
+            "Neighbor lists rebuilt %d times (every %.1f steps)%n",
+            builds, done / (double) Math.max(builds, 1));
+      }
+      if (physics.getReorders() > 0) {
+        System.out.printf(
+            "Reordered %d times, %.3f ms each%n",
+            physics.getReorders(), physics.getReorderNanos() / 1e6 / physics.getReorders());
+      }
+    }
+  }
+
+  /** Печатает итог выдержки, когда она кончается. */
+  private static final class HoldReport implements SimulationDriver.StepListener {
+    private SimulationDriver.Phase previous;
+
+    @Override
+    public void onStep(SimulationDriver driver) {
+      SimulationDriver.Phase phase = driver.getPhase();
+      if (previous == SimulationDriver.Phase.SAMPLING && phase != previous) {
+        EquilibriumMonitor monitor = driver.getEquilibriumMonitor();
+        System.out.printf(
+            "step %d  hold after %s: equilibrated in %d steps, P=%.4e +- %.1e Pa, T=%.3f +- %.3f K%n",
+            driver.getStep(),
+            driver.getHeldPhase(),
+            monitor.getEquilibrationSteps(),
+            monitor.getPressure().mean(),
+            monitor.getPressure().standardError(),
+            monitor.getTemperature().mean(),
+            monitor.getTemperature().standardError());
+      }
+      previous = phase;
+    }
+  }
+}
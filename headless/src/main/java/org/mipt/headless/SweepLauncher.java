@@ -0,0 +1,386 @@
+package org.mipt.headless;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.mipt.EquilibriumMonitor;
+import org.mipt.Physics;
+import org.mipt.SimulationDriver;
+import org.mipt.Welford;
+import org.mipt.dto.SimulationSettings;
+import org.mipt.dto.VesselData;
+import org.mipt.entity.SimulationConfig;
+
+/**
+ * Серия консольных запусков по сетке параметров: каждая точка — сочетание {@code temperature},
+ * {@code targetTemp}, {@code wallVelocity} и {@code numberOfMolecules}, в каждой точке {@code
+ * --seeds} реплик с разными зёрнами. Реплика проходит цикл нагрев — изотермическое расширение —
+ * изобарное сжатие до конца сжатия или до предела {@code --steps}/{@code --time}.
+ *
+ * <p>Аргументы: {@code [--config path] (--steps N | --time seconds) [--output table.csv]
+ * [--seeds K] [--threads T] [--temperature R] [--targetTemp R] [--wallVelocity R]
+ * [--numberOfMolecules R]}. Диапазон {@code R} — список через запятую ({@code 10,20,40}) или
+ * {@code from:to:count} с равным шагом; не заданный параметр берётся из конфига.
+ *
+ * <p>Реплики независимы и идут параллельно на пуле из {@code T} потоков; по умолчанию — по
+ * числу ядер, но не больше, чем помещается в память JVM. Каждая реплика считает в одном потоке.
+ * Итог — одна таблица: по строке на точку со средним и стандартной ошибкой по репликам. Для
+ * каждой величины пишется и число реплик, где она определена; стандартная ошибка по одной
+ * реплике остаётся пустой.
+ */
+public class SweepLauncher {
+  // грубая оценка памяти реплики на молекулу: хранилище, запасные массивы, сетка, события
+  private static final long BYTES_PER_MOLECULE = 256;
+
+  private static final String[] METRICS = {
+    "heatingTime",
+    "isothermalPressure",
+    "isothermalTemperature",
+    "isothermalZ",
+    "isobaricPressure",
+    "isobaricTemperature",
+    "isobaricZ",
+    "heatedPressure",
+    "heatedZ",
+    "expandedPressure",
+    "expandedZ",
+    "compressedPressure",
+    "compressedZ",
+    "completed"
+  };
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException, ExecutionException {
+    Path configPath = Path.of("config/simulation.json");
+    Path output = Path.of("sweep.csv");
+    long steps = -1;
+    double time = -1;
+    int seeds = 1;
+    int threads = -1;
+    String temperatures = null;
+    String targetTemps = null;
+    String wallVelocities = null;
+    String sizes = null;
+
+    if (args.length % 2 != 0) {
+      throw new IllegalArgumentException("Missing value for " + args[args.length - 1]);
+    }
+    for (int i = 0; i < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--config" -> configPath = Path.of(value);
+        case "--steps" -> steps = Long.parseLong(value);
+        case "--time" -> time = Double.parseDouble(value);
+        case "--output" -> output = Path.of(value);
+        case "--seeds" -> seeds = Integer.parseInt(value);
+        case "--threads" -> threads = Integer.parseInt(value);
+        case "--temperature" -> temperatures = value;
+        case "--targetTemp" -> targetTemps = value;
+        case "--wallVelocity" -> wallVelocities = value;
+        case "--numberOfMolecules" -> sizes = value;
+        default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+    if ((steps < 0) == (time < 0)) {
+      throw new IllegalArgumentException("Specify exactly one of --steps or --time");
+    }
+    if (seeds < 1) {
+      throw new IllegalArgumentException("Need at least one seed: " + seeds);
+    }
+
+    SimulationConfig base;
+    try (Reader reader = Files.newBufferedReader(configPath, StandardCharsets.UTF_8)) {
+      base = SimulationConfig.fromJson(reader);
+    }
+    SimulationSettings settings = base.simulation;
+    List<Point> points = new ArrayList<>();
+    for (double temperature : range(temperatures, settings.temperature())) {
+      for (double targetTemp : range(targetTemps, settings.targetTemp())) {
+        for (double wallVelocity : range(wallVelocities, base.vessel.wallVelocity())) {
+          for (double size : range(sizes, settings.numberOfMolecules())) {
+            points.add(new Point(temperature, targetTemp, wallVelocity, (int) Math.round(size)));
+          }
+        }
+      }
+    }
+
+    int largest = points.stream().mapToInt(Point::numberOfMolecules).max().orElse(1);
+    if (threads <= 0) {
+      long fit = Runtime.getRuntime().maxMemory() / (largest * BYTES_PER_MOLECULE);
+      threads = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), fit));
+    }
+    int replicas = points.size() * seeds;
+    System.out.printf(
+        "%d points x %d seeds = %d replicas on %d threads%n", points.size(), seeds, replicas, threads);
+
+    long baseSeed = settings.seed() != 0 ? settings.seed() : 1;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<double[]>> results = new ArrayList<>();
+    long start = System.nanoTime();
+    try {
+      int[] finished = {0};
+      for (Point point : points) {
+        for (int s = 0; s < seeds; s++) {
+          SimulationConfig config = point.apply(base, baseSeed + s);
+          long limitSteps = steps;
+          double limitTime = time;
+          results.add(
+              executor.submit(
+                  () -> {
+                    double[] metrics = runReplica(config, limitSteps, limitTime);
+                    synchronized (finished) {
+                      finished[0]++;
+                      System.out.printf(
+                          "[%d/%d] %s seed %d: %s after %.1f s%n",
+                          finished[0],
+                          replicas,
+                          point,
+                          config.simulation.seed(),
+                          metrics[metrics.length - 1] > 0 ? "cycle done" : "stopped",
+                          (System.nanoTime() - start) / 1e9);
+                    }
+                    return metrics;
+                  }));
+        }
+      }
+
+      try (PrintWriter writer =
+          new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8))) {
+        StringBuilder header =
+            new StringBuilder("temperature,targetTemp,wallVelocity,numberOfMolecules,seeds");
+        for (String metric : METRICS) {
+          header.append(',').append(metric).append("Mean,").append(metric).append("StdErr,");
+          header.append(metric).append("Replicas");
+        }
+        writer.println(header);
+
+        for (int p = 0; p < points.size(); p++) {
+          Welford[] stats = new Welford[METRICS.length];
+          for (int m = 0; m < stats.length; m++) {
+            stats[m] = new Welford();
+          }
+          for (int s = 0; s < seeds; s++) {
+            double[] metrics = results.get(p * seeds + s).get();
+            for (int m = 0; m < stats.length; m++) {
+              if (!Double.isNaN(metrics[m])) {
+                stats[m].add(metrics[m]);
+              }
+            }
+          }
+          Point point = points.get(p);
+          StringBuilder row =
+              new StringBuilder(
+                  String.format(
+                      Locale.ROOT,
+                      "%s,%s,%s,%d,%d",
+                      point.temperature(),
+                      point.targetTemp(),
+                      point.wallVelocity(),
+                      point.numberOfMolecules(),
+                      seeds));
+          for (Welford stat : stats) {
+            // по одной реплике разброс не оценить: пустая ячейка вместо ±0
+            row.append(',').append(stat.mean()).append(',');
+            if (stat.count() > 1) {
+              row.append(stat.standardError());
+            }
+            row.append(',').append(stat.count());
+          }
+          writer.println(row);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    System.out.printf(
+        "Wrote %s in %.1f s%n", output, (System.nanoTime() - start) / 1e9);
+  }
+
+  /** Значения диапазона: список через запятую или {@code from:to:count}; без диапазона — одно. */
+  static double[] range(String spec, double fallback) {
+    if (spec == null) {
+      return new double[] {fallback};
+    }
+    String[] bounds = spec.split(":");
+    if (bounds.length == 3) {
+      double from = Double.parseDouble(bounds[0]);
+      double to = Double.parseDouble(bounds[1]);
+      int count = Integer.parseInt(bounds[2]);
+      if (count < 1) {
+        throw new IllegalArgumentException("Range needs at least one value: " + spec);
+      }
+      double[] values = new double[count];
+      for (int i = 0; i < count; i++) {
+        values[i] = count == 1 ? from : from + (to - from) * i / (count - 1);
+      }
+      return values;
+    }
+    String[] items = spec.split(",");
+    double[] values = new double[items.length];
+    for (int i = 0; i < items.length; i++) {
+      values[i] = Double.parseDouble(items[i].trim());
+    }
+    return values;
+  }
+
+  /**
+   * Одна реплика в текущем потоке. Метрики в порядке {@link #METRICS}; у фазы, до которой
+   * реплика не дошла, — {@code NaN}.
+   */
+  private static double[] runReplica(SimulationConfig config, long steps, double time) {
+    SimulationDriver driver = SimulationDriver.create(config);
+    CycleSummary summary = new CycleSummary(config.simulation.numberOfMolecules());
+    driver.addListener(summary);
+    try {
+      while (!summary.completed
+          && (steps >= 0 ? driver.getStep() < steps : driver.getTime() < time)) {
+        driver.step();
+      }
+    } finally {
+      driver.dispose();
+    }
+    return new double[] {
+      summary.heatingTime,
+      summary.isothermalPressure.mean(),
+      summary.isothermalTemperature.mean(),
+      summary.isothermalZ.mean(),
+      summary.isobaricPressure.mean(),
+      summary.isobaricTemperature.mean(),
+      summary.isobaricZ.mean(),
+      summary.heldPressure[0],
+      summary.heldZ[0],
+      summary.heldPressure[1],
+      summary.heldZ[1],
+      summary.heldPressure[2],
+      summary.heldZ[2],
+      summary.completed ? 1 : 0
+    };
+  }
+
+  /** Точка сетки параметров. */
+  record Point(double temperature, double targetTemp, double wallVelocity, int numberOfMolecules) {
+    /** Конфиг реплики: параметры точки, своё зерно, один поток на столкновения, без профиля. */
+    SimulationConfig apply(SimulationConfig base, long seed) {
+      SimulationSettings s = base.simulation;
+      SimulationConfig config = new SimulationConfig();
+      config.molecule = base.molecule;
+      config.vessel =
+          new VesselData(
+              base.vessel.width(), base.vessel.height(), base.vessel.position(), wallVelocity);
+      config.simulation =
+          new SimulationSettings(
+              numberOfMolecules,
+              s.timeStep(),
+              (float) temperature,
+              (float) targetTemp,
+              s.visibleMoleculesStep(),
+              s.tempRatePerSecond(),
+              s.thermostatStepsToApply(),
+              seed,
+              0,
+              s.engine(),
+              s.cellOccupancy(),
+              s.logStride(),
+              0,
+              s.verletSkin(),
+              s.reorderStride(),
+              s.storage(),
+              0,
+              s.maxDisplacement(),
+              s.placement(),
+              s.blockSteps(),
+              s.equilibriumTolerance(),
+              s.sampleBlocks(),
+              s.boundary());
+      return config;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.ROOT,
+          "T0=%s Ttarget=%s u=%s N=%d",
+          temperature,
+          targetTemp,
+          wallVelocity,
+          numberOfMolecules);
+    }
+  }
+
+  /**
+   * Средние по фазам цикла. {@code Z = P A / (N k T)} — фактор сжимаемости двумерного газа, у
+   * идеального он равен 1. Цикл закончен, когда сжатие вернуло стенку на место, а при
+   * выдержках — когда закончилась выдержка после сжатия. Средние выдержек после нагрева,
+   * расширения и сжатия берутся из монитора равновесия; без выдержек они {@code NaN}.
+   */
+  private static final class CycleSummary implements SimulationDriver.StepListener {
+    private final int molecules;
+    private final Welford isothermalPressure = new Welford();
+    private final Welford isothermalTemperature = new Welford();
+    private final Welford isothermalZ = new Welford();
+    private final Welford isobaricPressure = new Welford();
+    private final Welford isobaricTemperature = new Welford();
+    private final Welford isobaricZ = new Welford();
+    // по номеру фазы, после которой шла выдержка
+    private final double[] heldPressure = {Double.NaN, Double.NaN, Double.NaN};
+    private final double[] heldZ = {Double.NaN, Double.NaN, Double.NaN};
+    private double heatingTime = Double.NaN;
+    private SimulationDriver.Phase previous = SimulationDriver.Phase.HEATING;
+    private boolean completed;
+
+    CycleSummary(int molecules) {
+      this.molecules = molecules;
+    }
+
+    @Override
+    public void onStep(SimulationDriver driver) {
+      SimulationDriver.Phase phase = driver.getPhase();
+      double z =
+          driver.getPressure() * driver.getArea() / (molecules * Physics.k * driver.getTemperature());
+      if (previous == SimulationDriver.Phase.HEATING && phase != SimulationDriver.Phase.HEATING) {
+        heatingTime = driver.getTime();
+      }
+      if (previous == SimulationDriver.Phase.SAMPLING && phase != SimulationDriver.Phase.SAMPLING) {
+        EquilibriumMonitor monitor = driver.getEquilibriumMonitor();
+        int held = driver.getHeldPhase().ordinal();
+        heldPressure[held] = monitor.getPressure().mean();
+        heldZ[held] =
+            heldPressure[held]
+                * driver.getArea()
+                / (molecules * Physics.k * monitor.getTemperature().mean());
+        if (driver.getHeldPhase() == SimulationDriver.Phase.ISOBARIC_COMPRESSION) {
+          completed = true;
+          return;
+        }
+      }
+      switch (phase) {
+        case HEATING, EQUILIBRATION, SAMPLING -> {}
+        case ISOTHERMAL_EXPANSION -> {
+          if (previous == SimulationDriver.Phase.ISOBARIC_COMPRESSION) {
+            completed = true;
+            return;
+          }
+          isothermalPressure.add(driver.getPressure());
+          isothermalTemperature.add(driver.getTemperature());
+          isothermalZ.add(z);
+        }
+        case ISOBARIC_COMPRESSION -> {
+          isobaricPressure.add(driver.getPressure());
+          isobaricTemperature.add(driver.getTemperature());
+          isobaricZ.add(z);
+        }
+      }
+      previous = phase;
+    }
+  }
+}
@@ -2,17 +2,23 @@ package org.mipt.lwjgl3;
 
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Application;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration;
+import java.nio.file.Path;
 import org.mipt.Main;
 
 /** Launches the desktop (LWJGL3) application. */
 public class Lwjgl3Launcher {
     public static void main(String[] args) {
         if (StartupHelper.startNewJvmIfRequired()) return; // This handles macOS support and helps on Windows.
-        createApplication();
+        createApplication(args);
     }
 
-    private static Lwjgl3Application createApplication() {
-        return new Lwjgl3Application(new Main(), getDefaultConfiguration());
+    private static Lwjgl3Application createApplication(String[] args) {
+        // --restart <checkpoint> продолжает моделирование с контрольной точки
+        Path restartFrom = null;
+        if (args.length == 2 && "--restart".equals(args[0])) {
+            restartFrom = Path.of(args[1]);
+        }
+        return new Lwjgl3Application(new Main(restartFrom), getDefaultConfiguration());
     }
 
     private static Lwjgl3ApplicationConfiguration getDefaultConfiguration() {